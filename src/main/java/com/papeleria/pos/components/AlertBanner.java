@@ -18,6 +18,11 @@ public class AlertBanner extends HBox {
         getChildren().addAll(emoji, text);
     }
 
+    /** Cambia el texto (p. ej. para avisos de progreso). */
+    public void setMessage(String message) {
+        text.setText(message);
+    }
+
     public static AlertBanner info(String msg) {
         return new AlertBanner("alert-info", "ℹ️", msg);
     }
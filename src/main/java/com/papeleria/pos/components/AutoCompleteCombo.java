@@ -10,16 +10,22 @@ import javafx.scene.input.KeyCode;
 import javafx.util.Callback;
 import javafx.util.StringConverter;
 
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 /**
  * Autocompletado para ComboBox editable con refreshData(...).
  * - ENTER confirma, ESPACIO no confirma.
  * - Borrar limpia selección.
+ * - Cada item tiene su texto normalizado (minúsculas, sin acentos) precalculado;
+ *   si la consulta extiende la anterior solo se filtra el resultado previo.
+ * - setMaxResults(n) limita la lista visible; al llegar al final se cargan n más.
  */
 public class AutoCompleteCombo<T> {
 
@@ -28,11 +34,23 @@ public class AutoCompleteCombo<T> {
     private final Function<T, String> toText;
     private boolean programmaticChange = false;
 
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+
+    // Claves normalizadas en paralelo a master (se recalculan solo en refreshData)
+    private String[] keys = new String[0];
+    // Último filtro: consulta y posiciones en master de TODAS sus coincidencias
+    private String lastQuery = null;
+    private int[] lastMatches = null;
+    private int matchCount = 0;
+    private int shown = 0;
+    private int maxResults = 0; // 0 = sin límite
+
     public AutoCompleteCombo(ComboBox<T> combo, ObservableList<T> items, Function<T, String> toText) {
         this.combo = combo;
         this.master = items == null ? FXCollections.observableArrayList()
                 : FXCollections.observableArrayList(items);
         this.toText = toText;
+        rebuildKeys();
 
         combo.setItems(FXCollections.observableArrayList(master));
         combo.setEditable(true);
@@ -55,6 +73,9 @@ public class AutoCompleteCombo<T> {
             protected void updateItem(T item, boolean empty) {
                 super.updateItem(item, empty);
                 setText(empty || item == null ? "" : AutoCompleteCombo.this.toText.apply(item));
+                // Carga perezosa: la última celda visible pide la siguiente página
+                if (!empty && lv != null && getIndex() == lv.getItems().size() - 1 && shown < matchCount)
+                    Platform.runLater(AutoCompleteCombo.this::loadMore);
             }
         };
         combo.setCellFactory(cellFactory);
@@ -64,17 +85,14 @@ public class AutoCompleteCombo<T> {
         combo.getEditor().textProperty().addListener((obs, old, val) -> {
             if (programmaticChange)
                 return;
-            String q = (val == null ? "" : val).trim().toLowerCase(Locale.ROOT);
+            String q = normalize(val);
             if (q.isEmpty()) {
-                combo.getItems().setAll(master);
+                filter(q);
                 combo.getSelectionModel().clearSelection();
                 combo.hide();
                 return;
             }
-            var filtered = master.stream()
-                    .filter(it -> safeText(it).contains(q))
-                    .collect(Collectors.toList());
-            combo.getItems().setAll(filtered);
+            filter(q);
             combo.show();
         });
 
@@ -128,20 +146,30 @@ public class AutoCompleteCombo<T> {
         });
     }
 
+    /** Limita cuántos items se muestran a la vez (0 = todos); el resto se carga al hacer scroll. */
+    public AutoCompleteCombo<T> setMaxResults(int maxResults) {
+        this.maxResults = Math.max(0, maxResults);
+        lastQuery = null;
+        filter(normalize(combo.getEditor().getText()));
+        return this;
+    }
+
     /** Actualiza el catálogo sin recrear el componente ni duplicar listeners. */
     public void refreshData(ObservableList<T> newData) {
         if (newData == null)
             newData = FXCollections.observableArrayList();
         this.master = FXCollections.observableArrayList(newData);
+        rebuildKeys();
 
         String currentText = combo.getEditor().getText();
         T selected = combo.getValue();
 
-        combo.getItems().setAll(this.master);
+        filter("");
 
         if (selected != null) {
+            String sel = toText.apply(selected);
             for (T it : this.master) {
-                if (Objects.equals(toText.apply(it), toText.apply(selected))) {
+                if (Objects.equals(toText.apply(it), sel)) {
                     combo.setValue(it);
                     break;
                 }
@@ -155,12 +183,8 @@ public class AutoCompleteCombo<T> {
             combo.getEditor().positionCaret(Math.min(pos, currentText.length()));
             programmaticChange = false;
             // re-ejecuta filtro
-            String q = currentText.trim().toLowerCase(Locale.ROOT);
-            var filtered = this.master.stream()
-                    .filter(it -> safeText(it).contains(q))
-                    .collect(Collectors.toList());
-            combo.getItems().setAll(filtered);
-            if (!filtered.isEmpty())
+            filter(normalize(currentText));
+            if (matchCount > 0)
                 combo.show();
         } else {
             combo.hide();
@@ -172,6 +196,77 @@ public class AutoCompleteCombo<T> {
                 : FXCollections.observableArrayList(newData));
     }
 
+    /* ======================= Filtrado ======================= */
+
+    /**
+     * Calcula las coincidencias de q. Si q extiende la consulta anterior, solo
+     * se revisan las coincidencias previas; si no, se recorre master.
+     */
+    private void filter(String q) {
+        int[] out;
+        int n = 0;
+        if (q.isEmpty()) {
+            out = null; // todo master, sin arreglo de posiciones
+            n = master.size();
+        } else if (lastQuery != null && lastMatches != null && q.startsWith(lastQuery)) {
+            out = new int[matchCount];
+            for (int i = 0; i < matchCount; i++) {
+                int idx = lastMatches[i];
+                if (keys[idx].contains(q))
+                    out[n++] = idx;
+            }
+        } else {
+            out = new int[Math.min(keys.length, 64)];
+            for (int i = 0; i < keys.length; i++) {
+                if (!keys[i].contains(q))
+                    continue;
+                if (n == out.length)
+                    out = Arrays.copyOf(out, n * 2);
+                out[n++] = i;
+            }
+        }
+        lastQuery = q;
+        lastMatches = out;
+        matchCount = n;
+        shown = 0;
+        combo.getItems().setAll(page(maxResults == 0 ? n : Math.min(n, maxResults)));
+    }
+
+    /** Agrega la siguiente página de coincidencias a la lista visible. */
+    private void loadMore() {
+        if (shown >= matchCount)
+            return;
+        combo.getItems().addAll(page(Math.min(matchCount, shown + Math.max(1, maxResults))));
+    }
+
+    private List<T> page(int hasta) {
+        List<T> out = new ArrayList<>(Math.max(0, hasta - shown));
+        for (int i = shown; i < hasta; i++)
+            out.add(master.get(lastMatches == null ? i : lastMatches[i]));
+        shown = hasta;
+        return out;
+    }
+
+    private void rebuildKeys() {
+        keys = new String[master.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = normalize(safeText(master.get(i)));
+        lastQuery = null;
+        lastMatches = null;
+    }
+
+    /** Minúsculas y sin acentos ("Cartulína" -> "cartulina"). */
+    private static String normalize(String s) {
+        if (s == null)
+            return "";
+        String t = s.trim().toLowerCase(Locale.ROOT);
+        for (int i = 0; i < t.length(); i++) {
+            if (t.charAt(i) >= 128)
+                return MARCAS.matcher(Normalizer.normalize(t, Normalizer.Form.NFD)).replaceAll("");
+        }
+        return t;
+    }
+
     private String safeText(T it) {
         if (it == null)
             return "";
@@ -0,0 +1,62 @@
+package com.papeleria.pos.components;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.scene.control.TextInputControl;
+import javafx.util.Duration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Búsqueda con espera para un campo de texto: cada tecla reinicia la espera
+ * (pos.search.debounceMs, 150 ms) y solo entonces la consulta corre en el
+ * ejecutor compartido de búsquedas, fuera del hilo de JavaFX. Una consulta
+ * nueva cancela la anterior si aún no empezaba, y el resultado vuelve al hilo
+ * de JavaFX solo si sigue siendo el más reciente (número de generación).
+ */
+public class DebouncedSearch<R> {
+
+    private static final ExecutorService BUSQUEDAS = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "pos-busqueda");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final TextInputControl field;
+    private final Function<String, R> query;
+    private final Consumer<R> onResult;
+    private final PauseTransition espera;
+
+    // Solo se tocan desde el hilo de JavaFX
+    private long generacion = 0;
+    private Future<?> actual;
+
+    public DebouncedSearch(TextInputControl field, Function<String, R> query, Consumer<R> onResult) {
+        this.field = field;
+        this.query = query;
+        this.onResult = onResult;
+        this.espera = new PauseTransition(Duration.millis(Math.max(0, Integer.getInteger("pos.search.debounceMs", 150))));
+        espera.setOnFinished(e -> now());
+        field.textProperty().addListener((o, old, v) -> espera.playFromStart());
+    }
+
+    /** Lanza la consulta ya, sin esperar (carga inicial o cambios de datos). */
+    public void now() {
+        espera.stop();
+        long gen = ++generacion;
+        if (actual != null)
+            actual.cancel(false); // sin interrumpir: una consulta ya iniciada se descarta al volver
+        String texto = field.getText() == null ? "" : field.getText();
+        actual = BUSQUEDAS.submit(() -> {
+            R r = query.apply(texto);
+            Platform.runLater(() -> {
+                if (gen == generacion)
+                    onResult.accept(r);
+            });
+        });
+    }
+}
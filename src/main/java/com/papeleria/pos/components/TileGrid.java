@@ -0,0 +1,111 @@
+package com.papeleria.pos.components;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.HBox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Grilla de tarjetas virtualizada: por dentro es un ListView de filas, así que
+ * solo existen las tarjetas de las filas visibles y se reciclan al hacer
+ * scroll. Las columnas se calculan con el ancho disponible.
+ *
+ * setData(...) solo reparte la lista en filas (vistas subList, sin copiar);
+ * las tarjetas visibles se actualizan en su lugar con Tile.update(...).
+ */
+public class TileGrid<T> extends ListView<List<T>> {
+
+    /** Tarjeta reciclable: el nodo se crea una vez y se rellena con cada item. */
+    public interface Tile<T> {
+        Node getNode();
+
+        void update(T item);
+    }
+
+    private final Supplier<Tile<T>> tileFactory;
+    private final double tileWidth;
+    private final double gap;
+    private final ObservableList<List<T>> rows = FXCollections.observableArrayList();
+    private List<T> data = List.of();
+    private int columns = 1;
+
+    public TileGrid(double tileWidth, double gap, Supplier<Tile<T>> tileFactory) {
+        this.tileWidth = tileWidth;
+        this.gap = gap;
+        this.tileFactory = tileFactory;
+        getStyleClass().add("tile-grid");
+        setItems(rows);
+        setFocusTraversable(false);
+        setCellFactory(lv -> new RowCell());
+        widthProperty().addListener((o, old, w) -> {
+            int c = columnsFor(w.doubleValue());
+            if (c != columns) {
+                columns = c;
+                rebuildRows();
+            }
+        });
+    }
+
+    /** Reemplaza los datos; solo se repintan las filas visibles. */
+    public void setData(List<T> items) {
+        this.data = items == null ? List.of() : items;
+        rebuildRows();
+    }
+
+    public List<T> getData() {
+        return data;
+    }
+
+    private void rebuildRows() {
+        List<List<T>> out = new ArrayList<>((data.size() + columns - 1) / columns);
+        for (int i = 0; i < data.size(); i += columns)
+            out.add(data.subList(i, Math.min(data.size(), i + columns)));
+        rows.setAll(out);
+    }
+
+    private int columnsFor(double width) {
+        double usable = width - 18; // scrollbar vertical + bordes
+        return Math.max(1, (int) ((usable + gap) / (tileWidth + gap)));
+    }
+
+    /* ======================= Celdas ======================= */
+
+    private final class RowCell extends ListCell<List<T>> {
+        private final HBox box = new HBox(gap);
+        private final List<Tile<T>> tiles = new ArrayList<>();
+
+        RowCell() {
+            getStyleClass().add("tile-row");
+            setText(null);
+        }
+
+        @Override
+        protected void updateItem(List<T> row, boolean empty) {
+            super.updateItem(row, empty);
+            if (empty || row == null) {
+                setGraphic(null);
+                return;
+            }
+            while (tiles.size() < row.size()) {
+                Tile<T> t = tileFactory.get();
+                tiles.add(t);
+                box.getChildren().add(t.getNode());
+            }
+            for (int i = 0; i < tiles.size(); i++) {
+                Node n = tiles.get(i).getNode();
+                boolean usada = i < row.size();
+                if (usada)
+                    tiles.get(i).update(row.get(i));
+                n.setVisible(usada);
+                n.setManaged(usada);
+            }
+            setGraphic(box);
+        }
+    }
+}
@@ -6,6 +6,7 @@ public class SaleItem {
     private double cantidadBase;   // en unidad base
     private double precioUnitario; // por unidad base
     private double subtotal;
+    private String categoria;      // del producto al momento de vender (null en ventas viejas)
 
     public SaleItem() {}
 
@@ -22,9 +23,11 @@ public class SaleItem {
     public double getCantidadBase() { return cantidadBase; }
     public double getPrecioUnitario() { return precioUnitario; }
     public double getSubtotal() { return subtotal; }
+    public String getCategoria() { return categoria; }
 
     public void setSku(String sku) { this.sku = sku; }
     public void setNombre(String nombre) { this.nombre = nombre; }
+    public void setCategoria(String categoria) { this.categoria = categoria; }
     public void setCantidadBase(double cantidadBase) { this.cantidadBase = cantidadBase; this.subtotal = cantidadBase * precioUnitario; }
     public void setPrecioUnitario(double precioUnitario) { this.precioUnitario = precioUnitario; this.subtotal = cantidadBase * precioUnitario; }
 }
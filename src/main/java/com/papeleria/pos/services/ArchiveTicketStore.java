@@ -0,0 +1,294 @@
+package com.papeleria.pos.services;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Tickets empaquetados: un archivo por día (archive/tickets-AAAA-MM-DD.dat)
+ * donde cada ticket se anexa tal cual, y un índice de solo-anexar
+ * (archive/tickets.idx) con id -> día, posición y longitud. El índice se
+ * carga en memoria al abrir; la lectura mapea solo el tramo del ticket.
+ *
+ * Los ticket-*.txt existentes se migran en segundo plano; mientras tanto
+ * read() los sigue encontrando en su ubicación original. Borrar un ticket
+ * deja una marca en el índice (el espacio en el .dat no se recupera).
+ *
+ * Cada entrada lleva el CRC32 del ticket. El índice se escribe sin esperar a
+ * que los datos lleguen a disco, así que tras una caída puede apuntar a bytes
+ * perdidos: loadIndex descarta las entradas que pasan del fin de su archivo y
+ * read() descarta las que no coinciden con su CRC.
+ */
+public class ArchiveTicketStore implements TicketStore {
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DEL = 2;
+    /** Como OP_PUT más el CRC32 del ticket (las entradas OP_PUT viejas no lo tienen). */
+    private static final byte OP_PUT_CRC = 3;
+    /** Tickets migrados por lote antes de sincronizar y borrar los .txt. */
+    private static final int MIGRATION_BATCH = 200;
+
+    private final Path dir;
+    private final Path archiveDir;
+    private final Path indexPath;
+    private final FileTicketStore legacy;
+
+    private final Map<String, Loc> index = new HashMap<>();
+    private final Map<LocalDate, FileChannel> dataChannels = new HashMap<>();
+    private FileChannel indexChannel;
+
+    /** Ubicación de un ticket dentro de su archivo diario; crc -1 = sin CRC. */
+    private record Loc(long epochDay, long offset, int length, long crc) {}
+
+    public ArchiveTicketStore(Path ticketsDir) {
+        this.dir = ticketsDir;
+        this.archiveDir = ticketsDir.resolve("archive");
+        this.indexPath = archiveDir.resolve("tickets.idx");
+        this.legacy = new FileTicketStore(ticketsDir);
+        try {
+            Files.createDirectories(archiveDir);
+            loadIndex();
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir el archivo de tickets: " + archiveDir, e);
+        }
+        Thread t = new Thread(this::migrateLegacy, "pos-tickets-migrate");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* ======================= TicketStore ======================= */
+
+    @Override
+    public synchronized void write(String saleId, String text) throws IOException {
+        append(saleId, text.getBytes(StandardCharsets.UTF_8), LocalDate.now());
+    }
+
+    @Override
+    public synchronized void delete(String saleId) throws IOException {
+        if (index.remove(saleId) != null)
+            writeIndex(OP_DEL, saleId, null);
+        legacy.delete(saleId);
+    }
+
+    @Override
+    public synchronized Optional<String> read(String saleId) {
+        Loc loc = index.get(saleId);
+        if (loc == null)
+            return legacy.read(saleId); // aún no migrado
+        try (FileChannel ch = FileChannel.open(dataPath(LocalDate.ofEpochDay(loc.epochDay())), StandardOpenOption.READ)) {
+            MappedByteBuffer mb = ch.map(FileChannel.MapMode.READ_ONLY, loc.offset(), loc.length());
+            byte[] b = new byte[loc.length()];
+            mb.get(b);
+            if (loc.crc() >= 0 && crc(b) != loc.crc())
+                return Optional.empty(); // los datos no llegaron a disco antes de una caída
+            return Optional.of(new String(b, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Datos antes que índice: al volver, todo lo que el índice registra está
+     * en disco. Entre un sync y el siguiente no hay esa garantía (ver la
+     * validación de loadIndex y el CRC de read).
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        for (FileChannel ch : dataChannels.values())
+            ch.force(false);
+        if (indexChannel != null)
+            indexChannel.force(false);
+        // Solo se mantiene abierto el archivo del día
+        LocalDate hoy = LocalDate.now();
+        Iterator<Map.Entry<LocalDate, FileChannel>> it = dataChannels.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<LocalDate, FileChannel> e = it.next();
+            if (!e.getKey().equals(hoy)) {
+                e.getValue().close();
+                it.remove();
+            }
+        }
+    }
+
+    /* ======================= Escritura ======================= */
+
+    private void append(String saleId, byte[] bytes, LocalDate dia) throws IOException {
+        FileChannel ch = dataChannels.get(dia);
+        if (ch == null || !ch.isOpen()) {
+            ch = FileChannel.open(dataPath(dia), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            dataChannels.put(dia, ch);
+        }
+        long offset = ch.size();
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining())
+            ch.write(buf);
+        Loc loc = new Loc(dia.toEpochDay(), offset, bytes.length, crc(bytes));
+        writeIndex(OP_PUT_CRC, saleId, loc);
+        index.put(saleId, loc);
+    }
+
+    private void writeIndex(byte op, String saleId, Loc loc) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(op);
+        out.writeUTF(saleId);
+        if (op == OP_PUT_CRC) {
+            out.writeLong(loc.epochDay());
+            out.writeLong(loc.offset());
+            out.writeInt(loc.length());
+            out.writeInt((int) loc.crc());
+        }
+        out.flush();
+        if (indexChannel == null || !indexChannel.isOpen()) {
+            indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bos.toByteArray());
+        while (buf.hasRemaining())
+            indexChannel.write(buf);
+    }
+
+    /**
+     * Lee el índice; si una caída dejó una entrada a medias, se recorta. Las
+     * entradas cuyo tramo pasa del fin de su archivo diario se descartan.
+     */
+    private void loadIndex() throws IOException {
+        if (Files.notExists(indexPath))
+            return;
+        long valido = 0;
+        try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+            CountingInput counter = new CountingInput(new BufferedInputStream(Channels.newInputStream(ch)));
+            DataInputStream in = new DataInputStream(counter);
+            while (true) {
+                try {
+                    byte op = in.readByte();
+                    String id = in.readUTF();
+                    if (op == OP_PUT)
+                        index.put(id, new Loc(in.readLong(), in.readLong(), in.readInt(), -1L));
+                    else if (op == OP_PUT_CRC)
+                        index.put(id, new Loc(in.readLong(), in.readLong(), in.readInt(), in.readInt() & 0xFFFFFFFFL));
+                    else if (op == OP_DEL)
+                        index.remove(id);
+                    else
+                        break;
+                    valido = counter.count;
+                } catch (EOFException eof) {
+                    break;
+                }
+            }
+        }
+        if (valido < Files.size(indexPath)) {
+            try (FileChannel ch = FileChannel.open(indexPath, StandardOpenOption.WRITE)) {
+                ch.truncate(valido);
+            }
+        }
+
+        Map<Long, Long> tamanos = new HashMap<>();
+        index.values().removeIf(loc -> {
+            long size = tamanos.computeIfAbsent(loc.epochDay(), d -> {
+                try {
+                    return Files.size(dataPath(LocalDate.ofEpochDay(d)));
+                } catch (IOException e) {
+                    return 0L;
+                }
+            });
+            return loc.offset() < 0 || loc.length() < 0 || loc.offset() + loc.length() > size;
+        });
+    }
+
+    /* ======================= Migración ======================= */
+
+    /** Pasa los ticket-*.txt al archivo diario (según su fecha de modificación). */
+    private void migrateLegacy() {
+        List<Path> legados = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "ticket-*.txt")) {
+            for (Path p : ds)
+                legados.add(p);
+        } catch (IOException e) {
+            return;
+        }
+        List<Path> migrados = new ArrayList<>();
+        for (Path p : legados) {
+            String name = p.getFileName().toString();
+            String id = name.substring("ticket-".length(), name.length() - ".txt".length());
+            synchronized (this) {
+                try {
+                    if (Files.notExists(p))
+                        continue; // se canceló mientras tanto
+                    if (!index.containsKey(id)) {
+                        LocalDate dia = Instant.ofEpochMilli(Files.getLastModifiedTime(p).toMillis())
+                                .atZone(ZoneId.systemDefault()).toLocalDate();
+                        append(id, Files.readAllBytes(p), dia);
+                    }
+                    migrados.add(p);
+                    if (migrados.size() >= MIGRATION_BATCH)
+                        commitMigration(migrados);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        synchronized (this) {
+            try {
+                commitMigration(migrados);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /** Sincroniza y recién entonces borra los .txt ya copiados. */
+    private void commitMigration(List<Path> migrados) throws IOException {
+        if (migrados.isEmpty())
+            return;
+        sync();
+        for (Path p : migrados)
+            Files.deleteIfExists(p);
+        migrados.clear();
+    }
+
+    /* ======================= Helpers ======================= */
+
+    private static long crc(byte[] b) {
+        CRC32 c = new CRC32();
+        c.update(b);
+        return c.getValue();
+    }
+
+    private Path dataPath(LocalDate dia) {
+        return archiveDir.resolve("tickets-" + dia + ".dat");
+    }
+
+    /** Cuenta los bytes consumidos para saber dónde termina la última entrada completa. */
+    private static final class CountingInput extends FilterInputStream {
+        long count;
+
+        CountingInput(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Product;
+import com.papeleria.pos.models.Sale;
+import com.papeleria.pos.models.SaleItem;
+
+import java.io.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Formato binario de registros con prefijo de longitud:
+ *
+ * <pre>
+ * "POSB" | versión (1 byte) | tipo (UTF) | { longitud (int) | registro }*
+ * </pre>
+ *
+ * Cada registro se codifica con DataOutput campo por campo; las cadenas
+ * nulas llevan un byte de presencia. Cambio y subtotal no se guardan porque
+ * Sale y SaleItem los derivan de los demás campos. La categoría de cada
+ * partida va al final del registro de la venta: los registros escritos antes
+ * de agregarla terminan sin ella y se leen igual.
+ */
+public class BinaryCodec implements StorageCodec {
+    private static final byte[] MAGIC = { 'P', 'O', 'S', 'B' };
+    private static final int VERSION = 1;
+
+    @Override
+    public String extension() {
+        return "bin";
+    }
+
+    @Override
+    public boolean recognizes(byte[] head) {
+        if (head.length < MAGIC.length)
+            return false;
+        for (int i = 0; i < MAGIC.length; i++)
+            if (head[i] != MAGIC[i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public <T> List<T> readList(InputStream in, Class<T> type) throws IOException {
+        List<T> out = new ArrayList<>();
+        forEach(in, type, out::add);
+        return out;
+    }
+
+    @Override
+    public <T> void forEach(InputStream in, Class<T> type, Consumer<? super T> visitor) throws IOException {
+        DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+        readHeader(din, type);
+        byte[] buf = new byte[256];
+        while (true) {
+            int len;
+            try {
+                len = din.readInt();
+            } catch (EOFException eof) {
+                break;
+            }
+            if (len < 0)
+                throw new IOException("Registro binario inválido");
+            if (buf.length < len)
+                buf = new byte[Math.max(len, buf.length * 2)];
+            din.readFully(buf, 0, len);
+            visitor.accept(type.cast(decode(new DataInputStream(new ByteArrayInputStream(buf, 0, len)), type)));
+        }
+    }
+
+    @Override
+    public void verify(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+        byte[] magic = new byte[MAGIC.length];
+        din.readFully(magic);
+        if (!recognizes(magic) || din.readUnsignedByte() != VERSION)
+            throw new IOException("Encabezado binario inválido");
+        din.readUTF();
+        while (true) {
+            int len;
+            try {
+                len = din.readInt();
+            } catch (EOFException eof) {
+                return; // terminó justo en un límite de registro
+            }
+            if (len < 0 || din.skipBytes(len) != len)
+                throw new IOException("Registro binario truncado");
+        }
+    }
+
+    @Override
+    public <T> void writeList(OutputStream out, List<T> items, Class<T> type) throws IOException {
+        DataOutputStream dout = new DataOutputStream(out);
+        dout.write(MAGIC);
+        dout.writeByte(VERSION);
+        dout.writeUTF(type.getSimpleName());
+        ByteArrayOutputStream rec = new ByteArrayOutputStream(256);
+        DataOutputStream rout = new DataOutputStream(rec);
+        for (T item : items) {
+            rec.reset();
+            encode(rout, item);
+            rout.flush();
+            dout.writeInt(rec.size());
+            rec.writeTo(dout);
+        }
+        dout.flush();
+    }
+
+    private void readHeader(DataInputStream din, Class<?> type) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        din.readFully(magic);
+        if (!recognizes(magic))
+            throw new IOException("No es un archivo binario del POS");
+        int version = din.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Versión binaria no soportada: " + version);
+        String tipo = din.readUTF();
+        if (!tipo.equals(type.getSimpleName()))
+            throw new IOException("El archivo contiene " + tipo + ", se esperaba " + type.getSimpleName());
+    }
+
+    /* ======================= Registros ======================= */
+
+    private void encode(DataOutputStream out, Object item) throws IOException {
+        if (item instanceof Product p) {
+            writeStr(out, p.getSku());
+            writeStr(out, p.getNombre());
+            writeStr(out, p.getCategoria());
+            writeStr(out, p.getUnidad());
+            out.writeDouble(p.getContenido());
+            out.writeDouble(p.getPrecio());
+            out.writeDouble(p.getStock());
+        } else if (item instanceof Sale s) {
+            writeStr(out, s.getId());
+            writeStr(out, s.getFecha() == null ? null : s.getFecha().toString());
+            out.writeDouble(s.getTotal());
+            out.writeDouble(s.getEfectivo());
+            out.writeInt(s.getItems().size());
+            for (SaleItem it : s.getItems()) {
+                writeStr(out, it.getSku());
+                writeStr(out, it.getNombre());
+                out.writeDouble(it.getCantidadBase());
+                out.writeDouble(it.getPrecioUnitario());
+            }
+            for (SaleItem it : s.getItems())
+                writeStr(out, it.getCategoria());
+        } else {
+            throw new IOException("Tipo no soportado por el codec binario: " + item.getClass().getSimpleName());
+        }
+    }
+
+    private Object decode(DataInputStream in, Class<?> type) throws IOException {
+        if (type == Product.class) {
+            return new Product(readStr(in), readStr(in), readStr(in), readStr(in),
+                    in.readDouble(), in.readDouble(), in.readDouble());
+        }
+        if (type == Sale.class) {
+            Sale s = new Sale(readStr(in));
+            String fecha = readStr(in);
+            s.setFecha(fecha == null ? null : LocalDateTime.parse(fecha));
+            double total = in.readDouble();
+            double efectivo = in.readDouble();
+            int n = in.readInt();
+            List<SaleItem> items = new ArrayList<>(n);
+            for (int i = 0; i < n; i++)
+                items.add(new SaleItem(readStr(in), readStr(in), in.readDouble(), in.readDouble()));
+            if (in.available() > 0)
+                for (SaleItem it : items)
+                    it.setCategoria(readStr(in));
+            s.setItems(items);
+            s.setEfectivo(efectivo);
+            s.setTotal(total);
+            return s;
+        }
+        throw new IOException("Tipo no soportado por el codec binario: " + type.getSimpleName());
+    }
+
+    private static void writeStr(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readStr(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
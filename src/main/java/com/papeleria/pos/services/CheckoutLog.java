@@ -0,0 +1,138 @@
+package com.papeleria.pos.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.papeleria.pos.models.Sale;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bitácora de escritura anticipada (WAL) del cobro: data/checkout.wal.
+ *
+ * Cada cobro se registra como una línea JSON con la venta y la imagen final
+ * del stock de cada SKU afectado (valores absolutos, no deltas), así que
+ * reproducirla dos veces deja el mismo resultado. Una cancelación se registra
+ * igual, con el id de la venta en cancel y el stock repuesto. Una línea con
+ * applied marca que el stock de las entradas hasta ese tx ya se guardó.
+ * Cuando todo quedó en products y en el diario de ventas, el archivo se
+ * vacía: un WAL vacío significa "todo aplicado".
+ */
+public class CheckoutLog {
+
+    /** Cobro o cancelación pendiente de aplicar tal como se guarda en cada línea. */
+    public static class Entry {
+        long tx;
+        Sale sale;
+        Map<String, Double> stock;
+        String cancel;
+        Long applied;
+
+        public Entry() {}
+
+        Entry(long tx, Sale sale, Map<String, Double> stock) {
+            this.tx = tx;
+            this.sale = sale;
+            this.stock = stock;
+        }
+
+        static Entry cancel(long tx, String saleId, Map<String, Double> stock) {
+            Entry e = new Entry(tx, null, stock);
+            e.cancel = saleId;
+            return e;
+        }
+
+        public long getTx() { return tx; }
+        public Sale getSale() { return sale; }
+        public Map<String, Double> getStock() { return stock; }
+        /** Id de la venta cancelada (null si es un cobro). */
+        public String getCancel() { return cancel; }
+        /** En una marca: tx hasta el que el stock ya se guardó (null en las demás). */
+        public Long getApplied() { return applied; }
+    }
+
+    private final Path path;
+    private final Gson gson;
+    private final boolean fsync;
+    private FileChannel channel;
+
+    public CheckoutLog(Path path, Gson compactGson) {
+        this.path = path;
+        this.gson = compactGson;
+        this.fsync = !"false".equalsIgnoreCase(System.getProperty("pos.checkout.fsync", "true").trim());
+    }
+
+    /** Escribe las entradas y hace un solo force() para todo el grupo. */
+    public synchronized void append(List<Entry> entries) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Entry e : entries)
+            sb.append(gson.toJson(e)).append('\n');
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        while (buf.hasRemaining())
+            ch.write(buf);
+        if (fsync)
+            ch.force(false);
+    }
+
+    /**
+     * Marca el stock de las entradas hasta tx como guardado. Sin fsync: si la
+     * marca se pierde, la recuperación vuelve a aplicar las imágenes.
+     */
+    public synchronized void markApplied(long tx) throws IOException {
+        Entry e = new Entry();
+        e.tx = tx;
+        e.applied = tx;
+        ByteBuffer buf = ByteBuffer.wrap((gson.toJson(e) + "\n").getBytes(StandardCharsets.UTF_8));
+        FileChannel ch = channel();
+        while (buf.hasRemaining())
+            ch.write(buf);
+    }
+
+    /** Marca todo como aplicado. */
+    public synchronized void clear() throws IOException {
+        FileChannel ch = channel();
+        ch.truncate(0);
+        if (fsync)
+            ch.force(true);
+    }
+
+    /** Entradas completas pendientes; una última línea cortada por una caída se ignora. */
+    public synchronized List<Entry> pending() {
+        List<Entry> out = new ArrayList<>();
+        if (Files.notExists(path))
+            return out;
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                try {
+                    Entry e = gson.fromJson(line, Entry.class);
+                    if (e != null && (e.sale != null || e.cancel != null || e.applied != null))
+                        out.add(e);
+                } catch (JsonParseException ignored) {
+                }
+            }
+        } catch (IOException ignored) {
+        }
+        return out;
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+}
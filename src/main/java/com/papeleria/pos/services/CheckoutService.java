@@ -0,0 +1,274 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Sale;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cobro como unidad de trabajo: el descuento de stock y el registro de la
+ * venta se confirman juntos a través de CheckoutLog (WAL). Las cancelaciones
+ * (reponer stock + tombstone) pasan por el mismo camino.
+ *
+ * Un hilo confirmador toma los cobros en cola y los procesa en grupo bajo el
+ * bloqueo del inventario:
+ * 1. calcula la imagen final de stock de cada cobro (en orden de llegada)
+ * 2. escribe todas las entradas en el WAL con un solo fsync (punto de commit)
+ * 3. aplica el stock (una escritura de products), marca el WAL y anexa las
+ *    ventas y cancelaciones (un fsync)
+ * 4. vacía el WAL
+ * Pasado el paso 2 el cobro queda confirmado aunque falle el 3: el grupo se
+ * completa desde el WAL (stock que falte y ventas por id) antes de aceptar
+ * otro, reintentando cada pos.checkout.retryMs, o al arrancar si el proceso
+ * cae. El WAL solo se vacía cuando todo lo que contiene ya se aplicó.
+ *
+ * Cada grupo aplicado se anuncia con un solo SALES_CHANGED
+ * (SalesService.SalesChanged) publicado desde el hilo confirmador, en orden,
+ * con la huella del historial justo después de sus anexos: quien lo aplique
+ * sabe exactamente qué ventas cubre esa huella. Un grupo que falló a medias
+ * se anuncia cuando se completa.
+ *
+ * Configuración: pos.checkout.maxBatch (cobros por grupo, 32),
+ * pos.checkout.retryMs (1000) y pos.checkout.fsync (true).
+ */
+public class CheckoutService {
+
+    private final StorageService storage;
+    private final InventoryService inventory;
+    private final EventBus bus;
+    private final CheckoutLog wal;
+    private final int maxBatch = Math.max(1, Integer.getInteger("pos.checkout.maxBatch", 32));
+    private final long retryMs = Math.max(10L, Long.getLong("pos.checkout.retryMs", 1000L));
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong nextTx = new AtomicLong(System.currentTimeMillis());
+    private final List<Sale> recovered = new ArrayList<>();
+    private final List<String> recoveredCancels = new ArrayList<>();
+    // true mientras el WAL tenga entradas sin aplicar; no se aceptan grupos nuevos
+    private volatile boolean pendiente;
+    // Cobros de grupos que fallaron a medias: se anuncian al completarse (solo el hilo confirmador)
+    private final List<Pending> sinAnunciar = new ArrayList<>();
+
+    private record Pending(Sale sale, boolean cancel, Map<String, Double> deltas, CompletableFuture<Void> done) {}
+
+    public CheckoutService(StorageService storage, InventoryService inventory, EventBus bus) {
+        this.storage = storage;
+        this.inventory = inventory;
+        this.bus = bus;
+        this.wal = storage.getCheckoutLog();
+        this.pendiente = !wal.pending().isEmpty();
+        completarPendientes(recovered, recoveredCancels);
+        Thread t = new Thread(this::loop, "pos-checkout");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Ventas que quedaron en el WAL por una caída y se completaron al arrancar. */
+    public List<Sale> recovered() {
+        return recovered;
+    }
+
+    /** Ids de ventas cuya cancelación quedó en el WAL y se completó al arrancar. */
+    public List<String> recoveredCancels() {
+        return recoveredCancels;
+    }
+
+    /**
+     * Descuenta (deltas negativos) y registra la venta de forma atómica. Bloquea
+     * hasta que el grupo que la incluye queda confirmado en disco.
+     */
+    public void commit(Sale sale, Map<String, Double> deltas) {
+        submit(new Pending(sale, false, deltas, new CompletableFuture<>()));
+    }
+
+    /** Repone el stock (deltas positivos) y anula la venta como una sola unidad, igual que commit. */
+    public void cancel(Sale sale, Map<String, Double> deltas) {
+        submit(new Pending(sale, true, deltas, new CompletableFuture<>()));
+    }
+
+    private void submit(Pending p) {
+        queue.add(p);
+        try {
+            p.done().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Cobro interrumpido", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            throw c instanceof RuntimeException re ? re : new RuntimeException("No se pudo confirmar el cobro", c);
+        }
+    }
+
+    /* ======================= Confirmación en grupo ======================= */
+
+    private void loop() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.clear();
+                if (pendiente) {
+                    // Sin cobros nuevos igual se reintenta completar el WAL
+                    Pending p = queue.poll(retryMs, TimeUnit.MILLISECONDS);
+                    if (p != null)
+                        batch.add(p);
+                } else {
+                    batch.add(queue.take());
+                }
+                // Lo que se acumuló mientras se confirmaba el grupo anterior viaja junto
+                queue.drainTo(batch, maxBatch - batch.size());
+                if (!completarPendientes(new ArrayList<>(), new ArrayList<>())) {
+                    fail(batch, new RuntimeException("Hay cobros confirmados sin aplicar; se reintentará en breve"));
+                    continue;
+                }
+                if (!sinAnunciar.isEmpty()) {
+                    announce(sinAnunciar, storage.ownSalesStamp());
+                    sinAnunciar.clear();
+                }
+                if (!batch.isEmpty())
+                    commitGroup(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                for (Pending p : batch)
+                    p.done().completeExceptionally(e);
+            }
+        }
+    }
+
+    private void commitGroup(List<Pending> batch) {
+        String stamp;
+        synchronized (inventory) {
+            Map<String, Double> working = new LinkedHashMap<>();
+            List<CheckoutLog.Entry> entries = new ArrayList<>(batch.size());
+            boolean ventas = false;
+            for (Pending p : batch) {
+                Map<String, Double> img = inventory.stockImages(p.deltas(), working);
+                working.putAll(img);
+                long tx = nextTx.incrementAndGet();
+                entries.add(p.cancel() ? CheckoutLog.Entry.cancel(tx, p.sale().getId(), img)
+                        : new CheckoutLog.Entry(tx, p.sale(), img));
+                ventas |= !p.cancel();
+            }
+
+            try {
+                wal.append(entries);
+            } catch (IOException e) {
+                // Nada se aplicó: el cobro falla completo
+                fail(batch, new RuntimeException("No se pudo escribir el WAL de cobro", e));
+                return;
+            }
+
+            // Desde aquí el grupo está confirmado: si algo falla se completa desde el WAL
+            pendiente = true;
+            try {
+                inventory.applyStockImages(working, ventas ? "SALE" : "CANCEL");
+                wal.markApplied(entries.get(entries.size() - 1).getTx());
+                List<Sale> sales = new ArrayList<>();
+                for (Pending p : batch) {
+                    if (!p.cancel()) {
+                        sales.add(p.sale());
+                        continue;
+                    }
+                    storage.appendSales(sales);
+                    sales.clear();
+                    storage.appendSaleCancel(p.sale().getId());
+                }
+                storage.appendSales(sales);
+                stamp = storage.ownSalesStamp();
+                wal.clear();
+                pendiente = false;
+            } catch (IOException | RuntimeException e) {
+                // Queda pendiente: loop() lo completa (y lo anuncia) antes del siguiente grupo
+                sinAnunciar.addAll(batch);
+                stamp = null;
+            }
+        }
+        if (!pendiente)
+            announce(batch, stamp);
+        for (Pending p : batch)
+            p.done().complete(null);
+    }
+
+    /** Un SALES_CHANGED por grupo; stamp null = la huella no corresponde solo a estas ventas. */
+    private void announce(List<Pending> batch, String stamp) {
+        if (bus == null)
+            return;
+        List<Sale> ventas = new ArrayList<>();
+        List<Sale> canceladas = new ArrayList<>();
+        for (Pending p : batch)
+            (p.cancel() ? canceladas : ventas).add(p.sale());
+        bus.publish(EventBus.Topic.SALES_CHANGED, new SalesService.SalesChanged(ventas, canceladas, stamp));
+    }
+
+    private static void fail(List<Pending> batch, RuntimeException e) {
+        for (Pending p : batch)
+            p.done().completeExceptionally(e);
+    }
+
+    /* ======================= Recuperación ======================= */
+
+    /**
+     * Aplica lo que quede en el WAL (al arrancar o tras un grupo que falló a
+     * medias) y lo vacía. false si no se pudo; el WAL queda intacto.
+     */
+    private boolean completarPendientes(List<Sale> ventas, List<String> cancelaciones) {
+        synchronized (inventory) {
+            if (!pendiente)
+                return true;
+            try {
+                replay(wal.pending(), ventas, cancelaciones);
+                wal.clear();
+                pendiente = false;
+                return true;
+            } catch (IOException | RuntimeException e) {
+                return false;
+            }
+        }
+    }
+
+    private void replay(List<CheckoutLog.Entry> log, List<Sale> ventas, List<String> cancelaciones) {
+        long aplicado = Long.MIN_VALUE;
+        for (CheckoutLog.Entry e : log)
+            if (e.getApplied() != null)
+                aplicado = Math.max(aplicado, e.getApplied());
+
+        Map<String, Double> images = new LinkedHashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (CheckoutLog.Entry e : log) {
+            if (e.getApplied() != null)
+                continue;
+            // Stock ya guardado (hay marca): reaplicarlo pisaría cambios posteriores
+            if (e.getTx() > aplicado && e.getStock() != null)
+                images.putAll(e.getStock()); // el más reciente gana
+            String id = e.getCancel() != null ? e.getCancel() : e.getSale().getId();
+            if (id != null)
+                ids.add(id);
+        }
+        inventory.applyStockImages(images, "RECOVERY");
+
+        // Una sola pasada para saber cuáles ventas ya están vigentes en el diario
+        Set<String> vigentes = new HashSet<>();
+        storage.forEachSale(s -> {
+            if (s.getId() != null && ids.contains(s.getId()))
+                vigentes.add(s.getId());
+        });
+        List<Sale> faltantes = new ArrayList<>();
+        for (CheckoutLog.Entry e : log) {
+            if (e.getApplied() != null)
+                continue;
+            if (e.getCancel() == null) {
+                if (e.getSale().getId() == null || vigentes.add(e.getSale().getId()))
+                    faltantes.add(e.getSale());
+            } else if (vigentes.remove(e.getCancel())) {
+                storage.appendSales(faltantes);
+                ventas.addAll(faltantes);
+                faltantes.clear();
+                storage.appendSaleCancel(e.getCancel());
+                cancelaciones.add(e.getCancel());
+            }
+        }
+        storage.appendSales(faltantes);
+        ventas.addAll(faltantes);
+    }
+}
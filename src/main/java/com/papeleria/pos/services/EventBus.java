@@ -1,31 +1,191 @@
 package com.papeleria.pos.services;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
+/**
+ * Bus de eventos por tema.
+ *
+ * En modo asíncrono (por defecto) cada tema tiene una cola acotada y un hilo
+ * despachador propio: publish() solo encola y regresa. Las ráfagas que llegan
+ * dentro de la ventana de agrupación se entregan una sola vez (último payload)
+ * a los suscriptores de subscribe(); los de subscribeEach() reciben todos los
+ * payloads en orden, antes que los agrupados. Los handlers corren en el hilo
+ * del despachador: lo que toque la UI debe ir en Platform.runLater.
+ *
+ * Configuración (propiedades del sistema):
+ * - pos.events.mode = async | sync (sync: entrega inmediata en el hilo que publica)
+ * - pos.events.queueCapacity = tamaño de cada cola (1024); si se llena, publish()
+ *   espera lugar (nunca entrega fuera del despachador ni se salta el orden)
+ * - pos.events.coalesceMs = ventana de agrupación en ms (50; 0 = sin agrupar)
+ */
 public class EventBus {
 
     public enum Topic {
         INVENTORY_CHANGED,
         SALES_CHANGED,
-        PRODUCTION_CHANGED
+        PRODUCTION_CHANGED,
+        /** Cambios externos en data/ (payload: FileChangeService.Change). */
+        FILES_CHANGED
     }
 
-    private final Map<Topic, List<Consumer<Object>>> subscribers = new EnumMap<>(Topic.class);
+    /** Métricas de un tema (instantánea). Latencias en microsegundos. */
+    public record Metrics(int queueDepth, long published, long deliveries, long coalesced,
+                          long blockedPublishes, long errors, long avgHandlerMicros, long maxHandlerMicros) {}
+
+    private final boolean async;
+    private final long coalesceNanos;
+    private final Map<Topic, Channel> channels = new EnumMap<>(Topic.class);
+
+    /** Cola, suscriptores y contadores de un tema. */
+    private final class Channel {
+        final List<Consumer<Object>> coalescing = new CopyOnWriteArrayList<>();
+        final List<Consumer<Object>> each = new CopyOnWriteArrayList<>();
+        final BlockingQueue<Object> queue;
+        // Lo que publica un handler del propio tema con la cola llena (solo lo toca el despachador)
+        final ArrayDeque<Object> propios = new ArrayDeque<>();
+        volatile Thread dispatcher;
+
+        final AtomicLong published = new AtomicLong();
+        final AtomicLong deliveries = new AtomicLong();
+        final AtomicLong coalesced = new AtomicLong();
+        final AtomicLong blocked = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong handlerCalls = new AtomicLong();
+        final AtomicLong handlerNanos = new AtomicLong();
+        final AtomicLong maxHandlerNanos = new AtomicLong();
+
+        Channel(int capacity) {
+            this.queue = async ? new ArrayBlockingQueue<>(capacity) : null;
+        }
+
+        void publish(Object payload) {
+            published.incrementAndGet();
+            if (queue == null) {
+                deliver(List.of(payload));
+                return;
+            }
+            if (Thread.currentThread() == dispatcher) {
+                // Un handler publicando en su propio tema: esperar lugar sería esperarse a sí mismo
+                if (!propios.isEmpty() || !queue.offer(payload))
+                    propios.add(payload);
+                return;
+            }
+            if (queue.offer(payload))
+                return;
+            // Cola llena: contrapresión, el que publica espera a que el despachador avance
+            blocked.incrementAndGet();
+            boolean interrumpido = false;
+            while (true) {
+                try {
+                    queue.put(payload);
+                    break;
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+            if (interrumpido)
+                Thread.currentThread().interrupt();
+        }
+
+        void loop() {
+            dispatcher = Thread.currentThread();
+            List<Object> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.clear();
+                    if (propios.isEmpty())
+                        batch.add(queue.take());
+                    if (coalesceNanos > 0 && !batch.isEmpty()) {
+                        long deadline = System.nanoTime() + coalesceNanos;
+                        long rem;
+                        while ((rem = deadline - System.nanoTime()) > 0) {
+                            Object next = queue.poll(rem, TimeUnit.NANOSECONDS);
+                            if (next == null)
+                                break;
+                            batch.add(next);
+                        }
+                    }
+                    queue.drainTo(batch);
+                    batch.addAll(propios); // publicados después de lo que ya estaba en la cola
+                    propios.clear();
+                    deliver(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException ignored) {
+                }
+            }
+        }
+
+        void deliver(List<Object> batch) {
+            for (Object payload : batch)
+                for (Consumer<Object> h : each)
+                    call(h, payload);
+            if (!coalescing.isEmpty()) {
+                Object last = batch.get(batch.size() - 1);
+                for (Consumer<Object> h : coalescing)
+                    call(h, last);
+            }
+            deliveries.incrementAndGet();
+            coalesced.addAndGet(batch.size() - 1);
+        }
+
+        void call(Consumer<Object> h, Object payload) {
+            long t0 = System.nanoTime();
+            try {
+                h.accept(payload);
+            } catch (Exception e) {
+                errors.incrementAndGet();
+            }
+            long dt = System.nanoTime() - t0;
+            handlerCalls.incrementAndGet();
+            handlerNanos.addAndGet(dt);
+            maxHandlerNanos.accumulateAndGet(dt, Math::max);
+        }
+
+        Metrics metrics() {
+            long calls = handlerCalls.get();
+            return new Metrics(queue == null ? 0 : queue.size(), published.get(), deliveries.get(),
+                    coalesced.get(), blocked.get(), errors.get(),
+                    calls == 0 ? 0 : handlerNanos.get() / calls / 1000, maxHandlerNanos.get() / 1000);
+        }
+    }
 
     public EventBus() {
+        this.async = !"sync".equalsIgnoreCase(System.getProperty("pos.events.mode", "async").trim());
+        this.coalesceNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Long.getLong("pos.events.coalesceMs", 50)));
+        int capacity = Math.max(1, Integer.getInteger("pos.events.queueCapacity", 1024));
         for (Topic t : Topic.values()) {
-            subscribers.put(t, new ArrayList<>());
+            Channel ch = new Channel(capacity);
+            channels.put(t, ch);
+            if (async) {
+                Thread th = new Thread(ch::loop, "pos-events-" + t.name().toLowerCase(Locale.ROOT));
+                th.setDaemon(true);
+                th.start();
+            }
         }
     }
 
+    /** Suscripción agrupada: en una ráfaga solo se recibe el último payload. */
     public void subscribe(Topic topic, Consumer<Object> handler){
-        subscribers.get(topic).add(handler);
+        channels.get(topic).coalescing.add(handler);
+    }
+
+    /** Suscripción sin agrupar: se recibe cada payload, en orden de publicación. */
+    public void subscribeEach(Topic topic, Consumer<Object> handler){
+        channels.get(topic).each.add(handler);
     }
 
     public void publish(Topic topic, Object payload){
-        for (Consumer<Object> h : subscribers.get(topic)){
-            try { h.accept(payload); } catch (Exception ignored) {}
-        }
+        channels.get(topic).publish(payload);
+    }
+
+    public Metrics metrics(Topic topic){
+        return channels.get(topic).metrics();
     }
 }
@@ -0,0 +1,186 @@
+package com.papeleria.pos.services;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Lectura en streaming de la primera hoja de un .xlsx con el API de eventos
+ * de POI (XSSFReader + SAX): nunca se arma el libro completo en memoria, solo
+ * la fila en curso.
+ *
+ * Cada celda llega como texto con el mismo formato que Cell.toString() del
+ * modelo completo (números como Double.toString, "1001" -> "1001.0"), para
+ * que los SKUs numéricos sigan coincidiendo con importaciones anteriores.
+ * Las fórmulas entregan su último resultado calculado.
+ */
+final class ExcelRowReader {
+
+    /** Recibe cada fila: número de fila (1 = primera) y celdas 0..columns-1 ("" si vacía). */
+    interface RowSink {
+        void row(int rowNum, String[] cells);
+    }
+
+    private ExcelRowReader() {
+    }
+
+    static void read(Path xlsx, int columns, RowSink sink) throws IOException {
+        try (OPCPackage pkg = OPCPackage.open(xlsx.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            PlainSharedStrings strings = new PlainSharedStrings();
+            List<PackagePart> sst = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+            if (!sst.isEmpty()) {
+                try (InputStream in = sst.get(0).getInputStream()) {
+                    XMLReader xml = XMLHelper.newXMLReader();
+                    xml.setContentHandler(strings);
+                    xml.parse(new InputSource(in));
+                }
+            }
+            StylesTable styles = reader.getStylesTable();
+            Iterator<InputStream> sheets = reader.getSheetsData();
+            if (!sheets.hasNext())
+                return;
+            try (InputStream sheet = sheets.next()) {
+                XMLReader xml = XMLHelper.newXMLReader();
+                xml.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                        new Handler(columns, sink), new LegacyFormatter(), false));
+                xml.parse(new InputSource(sheet));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("No se pudo leer el archivo de Excel: " + e.getMessage(), e);
+        }
+    }
+
+    /** Arma la fila en un arreglo reutilizado y la entrega al terminar. */
+    private static final class Handler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final String[] cells;
+        private final RowSink sink;
+
+        Handler(int columns, RowSink sink) {
+            this.cells = new String[columns];
+            this.sink = sink;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(cells, "");
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            sink.row(rowNum + 1, cells.clone());
+        }
+
+        @Override
+        public void cell(String ref, String value, XSSFComment comment) {
+            if (ref == null)
+                return;
+            int col = column(ref);
+            if (col < cells.length)
+                cells[col] = value == null ? "" : value;
+        }
+    }
+
+    /** Columna (0 = A) de una referencia tipo "AB12", sin pasar por CellReference. */
+    private static int column(String ref) {
+        int col = 0;
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if (c < 'A' || c > 'Z')
+                break;
+            col = col * 26 + (c - 'A' + 1);
+        }
+        return col - 1;
+    }
+
+    /** Números como Cell.toString() (Double.toString); fechas con el formato de la celda. */
+    private static final class LegacyFormatter extends DataFormatter {
+        private final Map<Integer, Boolean> esFecha = new HashMap<>();
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            boolean fecha = esFecha.computeIfAbsent(formatIndex, i -> DateUtil.isADateFormat(i, formatString));
+            if (fecha && DateUtil.isValidExcelDate(value))
+                return super.formatRawCellContents(value, formatIndex, formatString);
+            return Double.toString(value);
+        }
+    }
+
+    /**
+     * Tabla de textos compartidos como simples String. ReadOnlySharedStringsTable
+     * arma un XSSFRichTextString (xmlbeans) por cada consulta, que era la mayor
+     * parte del tiempo de lectura. Los textos fonéticos (rPh) se omiten.
+     */
+    private static final class PlainSharedStrings extends DefaultHandler implements SharedStrings {
+        private final List<String> strings = new ArrayList<>();
+        private final StringBuilder actual = new StringBuilder();
+        private boolean enT;
+        private boolean enRPh;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            switch (localName) {
+                case "si" -> actual.setLength(0);
+                case "t" -> enT = true;
+                case "rPh" -> enRPh = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "si" -> strings.add(actual.toString());
+                case "t" -> enT = false;
+                case "rPh" -> enRPh = false;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (enT && !enRPh)
+                actual.append(ch, start, length);
+        }
+
+        @Override
+        public RichTextString getItemAt(int idx) {
+            return new HSSFRichTextString(strings.get(idx));
+        }
+
+        @Override
+        public int getCount() {
+            return strings.size();
+        }
+
+        @Override
+        public int getUniqueCount() {
+            return strings.size();
+        }
+    }
+}
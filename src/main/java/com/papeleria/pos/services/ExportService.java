@@ -0,0 +1,326 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Product;
+import com.papeleria.pos.models.SaleItem;
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * Exportación de productos, ventas y partidas de venta a .xlsx o CSV.
+ *
+ * Las ventas se recorren con StorageService.forEachSale (sin materializar el
+ * historial) y el .xlsx se escribe con SXSSFWorkbook: solo quedan en memoria
+ * las últimas pos.export.window filas (100), el resto va a un temporal
+ * comprimido. Así la memoria no depende de cuántos años de ventas haya.
+ *
+ * El archivo se escribe primero como .tmp y solo se mueve al destino si la
+ * exportación termina; cancelar o fallar no deja archivos a medias.
+ * forEachSale no retiene el bloqueo del almacenamiento mientras recorre: se
+ * puede cobrar durante una exportación larga.
+ *
+ * La hoja de productos usa las mismas columnas que importFromExcel, así que
+ * puede volver a importarse.
+ */
+public class ExportService {
+
+    public enum Datos {
+        PRODUCTOS("Productos"),
+        VENTAS("Ventas"),
+        PARTIDAS("Partidas");
+
+        private final String titulo;
+
+        Datos(String titulo) {
+            this.titulo = titulo;
+        }
+
+        public String getTitulo() {
+            return titulo;
+        }
+    }
+
+    public enum Formato {
+        XLSX,
+        CSV
+    }
+
+    /** Lanzada cuando cancelado() responde true; el destino no se toca. */
+    public static class ExportCancelled extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExportCancelled() {
+            super("Exportación cancelada");
+        }
+    }
+
+    /** Excel admite 1,048,576 filas por hoja; al llenarse se abre otra. */
+    private static final int MAX_FILAS_HOJA = 1_048_575;
+    private static final int AVISO_CADA = 1000;
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final StorageService storage;
+    private final InventoryService inventory;
+
+    public ExportService(StorageService storage, InventoryService inventory) {
+        this.storage = storage;
+        this.inventory = inventory;
+    }
+
+    /**
+     * Exporta y devuelve las filas escritas (sin encabezados). progreso recibe
+     * las filas escritas cada AVISO_CADA; cancelado se consulta en cada fila.
+     * Ambos pueden ser null.
+     */
+    public int export(Datos datos, Formato formato, Path destino, IntConsumer progreso, BooleanSupplier cancelado)
+            throws IOException {
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".tmp");
+        boolean ok = false;
+        try {
+            int filas;
+            try (RowWriter w = formato == Formato.XLSX ? new XlsxWriter(tmp, datos.getTitulo()) : new CsvWriter(tmp)) {
+                try {
+                    filas = write(datos, w, progreso, cancelado);
+                } catch (IOException | RuntimeException e) {
+                    w.discard();
+                    throw e;
+                }
+            }
+            try {
+                Files.move(tmp, destino, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ok = true;
+            return filas;
+        } finally {
+            if (!ok)
+                Files.deleteIfExists(tmp);
+        }
+    }
+
+    /* ======================= Contenido ======================= */
+
+    private int write(Datos datos, RowWriter w, IntConsumer progreso, BooleanSupplier cancelado) throws IOException {
+        int[] filas = { 0 };
+        // Cada fila pasa por aquí: cancelación y progreso en un solo lugar
+        Runnable fila = () -> {
+            if (cancelado != null && cancelado.getAsBoolean())
+                throw new ExportCancelled();
+            if (++filas[0] % AVISO_CADA == 0 && progreso != null)
+                progreso.accept(filas[0]);
+        };
+        try {
+            switch (datos) {
+                case PRODUCTOS -> {
+                    w.header("SKU", "Nombre", "Categoría", "Unidad", "Contenido", "Precio", "Stock");
+                    List<Product> productos = inventory.list();
+                    for (Product p : productos) {
+                        fila.run();
+                        w.row(p.getSku(), p.getNombre(), p.getCategoria(), p.getUnidad(),
+                                p.getContenido(), p.getPrecio(), p.getStock());
+                    }
+                }
+                case VENTAS -> {
+                    w.header("ID", "Fecha", "Partidas", "Total", "Efectivo", "Cambio");
+                    storage.forEachSale(s -> {
+                        fila.run();
+                        w.rowUnchecked(s.getId(), s.getFecha(), (double) s.getItems().size(),
+                                s.getTotal(), s.getEfectivo(), s.getCambio());
+                    });
+                }
+                case PARTIDAS -> {
+                    w.header("Venta", "Fecha", "SKU", "Nombre", "Cantidad base", "Precio unitario", "Subtotal");
+                    storage.forEachSale(s -> {
+                        for (SaleItem it : s.getItems()) {
+                            fila.run();
+                            w.rowUnchecked(s.getId(), s.getFecha(), it.getSku(), it.getNombre(),
+                                    it.getCantidadBase(), it.getPrecioUnitario(), it.getSubtotal());
+                        }
+                    });
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (progreso != null)
+            progreso.accept(filas[0]);
+        return filas[0];
+    }
+
+    /* ======================= Escritores ======================= */
+
+    /** Celdas admitidas: String, Double y LocalDateTime (null = vacía). */
+    private interface RowWriter extends Closeable {
+        void header(String... titles) throws IOException;
+
+        void row(Object... cells) throws IOException;
+
+        /** El archivo se va a borrar: close() puede omitir la escritura final. */
+        default void discard() {
+        }
+
+        /** Para usar dentro de visitantes (Consumer) que no declaran IOException. */
+        default void rowUnchecked(Object... cells) {
+            try {
+                row(cells);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** .xlsx en streaming con ventana acotada de filas en memoria. */
+    private static final class XlsxWriter implements RowWriter {
+        private final Path file;
+        private final String titulo;
+        private final SXSSFWorkbook wb;
+        private final CellStyle fecha;
+        private final CellStyle negrita;
+        private String[] header = new String[0];
+        private SXSSFSheet sheet;
+        private int hojas = 0;
+        private int r = 0;
+        private boolean descartar = false;
+
+        XlsxWriter(Path file, String titulo) {
+            this.file = file;
+            this.titulo = titulo;
+            this.wb = new SXSSFWorkbook(Math.max(1, Integer.getInteger("pos.export.window", 100)));
+            wb.setCompressTempFiles(true);
+            fecha = wb.createCellStyle();
+            fecha.setDataFormat(wb.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm"));
+            negrita = wb.createCellStyle();
+            Font f = wb.createFont();
+            f.setBold(true);
+            negrita.setFont(f);
+            nuevaHoja();
+        }
+
+        private void nuevaHoja() {
+            hojas++;
+            sheet = wb.createSheet(hojas == 1 ? titulo : titulo + " (" + hojas + ")");
+            r = 0;
+            if (header.length > 0)
+                header(header);
+        }
+
+        @Override
+        public void header(String... titles) {
+            header = titles;
+            Row row = sheet.createRow(r++);
+            for (int i = 0; i < titles.length; i++) {
+                Cell c = row.createCell(i);
+                c.setCellValue(titles[i]);
+                c.setCellStyle(negrita);
+            }
+        }
+
+        @Override
+        public void row(Object... cells) {
+            if (r > MAX_FILAS_HOJA)
+                nuevaHoja();
+            Row row = sheet.createRow(r++);
+            for (int i = 0; i < cells.length; i++) {
+                Object v = cells[i];
+                if (v == null)
+                    continue;
+                Cell c = row.createCell(i);
+                if (v instanceof Double d) {
+                    c.setCellValue(d);
+                } else if (v instanceof LocalDateTime t) {
+                    c.setCellValue(t);
+                    c.setCellStyle(fecha);
+                } else {
+                    c.setCellValue(v.toString());
+                }
+            }
+        }
+
+        @Override
+        public void discard() {
+            descartar = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (descartar) {
+                wb.dispose();
+                wb.close();
+                return;
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+                wb.write(out);
+            } finally {
+                wb.dispose(); // borra los temporales de SXSSF
+                wb.close();
+            }
+        }
+    }
+
+    /** CSV en UTF-8 (con BOM para que Excel respete los acentos), separado por comas. */
+    private static final class CsvWriter implements RowWriter {
+        private final Writer out;
+        private final StringBuilder linea = new StringBuilder(128);
+
+        CsvWriter(Path file) throws IOException {
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            out.write('\uFEFF');
+        }
+
+        @Override
+        public void header(String... titles) throws IOException {
+            row((Object[]) titles);
+        }
+
+        @Override
+        public void row(Object... cells) throws IOException {
+            linea.setLength(0);
+            for (int i = 0; i < cells.length; i++) {
+                if (i > 0)
+                    linea.append(',');
+                Object v = cells[i];
+                if (v == null)
+                    continue;
+                if (v instanceof Double d) {
+                    linea.append(numero(d));
+                } else if (v instanceof LocalDateTime t) {
+                    linea.append(t.format(FECHA));
+                } else {
+                    quote(v.toString());
+                }
+            }
+            linea.append("\r\n");
+            out.write(linea.toString());
+        }
+
+        /** Entre comillas solo si hace falta (coma, comillas o salto de línea). */
+        private void quote(String s) {
+            if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0 && s.indexOf('\r') < 0) {
+                linea.append(s);
+                return;
+            }
+            linea.append('"').append(s.replace("\"", "\"\"")).append('"');
+        }
+
+        private static String numero(double d) {
+            if (d == Math.rint(d) && Math.abs(d) < 1e15)
+                return Long.toString((long) d);
+            return Double.toString(d);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
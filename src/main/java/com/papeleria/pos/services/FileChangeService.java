@@ -0,0 +1,138 @@
+package com.papeleria.pos.services;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cambios de archivos en data/ hechos por fuera de la aplicación (otra caja,
+ * un editor, una restauración de respaldo), vistos con WatchService en lugar
+ * de sondear mtimes.
+ *
+ * Los eventos se agrupan durante una ventana (pos.files.debounceMs, 300 ms) y
+ * se traducen a un Change tipado (PRODUCTS, RECIPES, SALES) que se publica en
+ * FILES_CHANGED una sola vez por tipo. Una ráfaga puede traer varios tipos
+ * seguidos, así que los suscriptores deben usar subscribeEach (con subscribe
+ * solo llegaría el último). Las escrituras propias de
+ * StorageService sobre productos y ventas se reconocen por su huella y no se
+ * publican: esos cambios ya viajan como INVENTORY_CHANGED / SALES_CHANGED.
+ *
+ * pos.files.watch=false desactiva el servicio.
+ */
+public class FileChangeService {
+
+    public enum Kind {
+        PRODUCTS,
+        RECIPES,
+        SALES
+    }
+
+    /** Payload de FILES_CHANGED. */
+    public record Change(Kind kind) {}
+
+    private final StorageService storage;
+    private final EventBus bus;
+    private final Path dataDir;
+    private final Path recetasDir;
+    private final Path ventasDir;
+    private final long debounceMs = Math.max(0, Long.getLong("pos.files.debounceMs", 300));
+    private final Map<WatchKey, Path> dirs = new HashMap<>();
+    private WatchService watcher;
+
+    public FileChangeService(StorageService storage, EventBus bus) {
+        this.storage = storage;
+        this.bus = bus;
+        this.dataDir = storage.getDataDir();
+        this.recetasDir = dataDir.resolve("recetas");
+        this.ventasDir = dataDir.resolve("ventas");
+        if ("false".equalsIgnoreCase(System.getProperty("pos.files.watch", "true").trim()))
+            return;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for (Path d : new Path[] { dataDir, recetasDir, ventasDir }) {
+                Files.createDirectories(d);
+                dirs.put(d.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), d);
+            }
+        } catch (IOException e) {
+            watcher = null; // sin observador: las vistas siguen funcionando con sus eventos normales
+            return;
+        }
+        Thread t = new Thread(this::loop, "pos-filewatch");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /* ======================= Observación ======================= */
+
+    private void loop() {
+        while (true) {
+            try {
+                Set<Kind> kinds = EnumSet.noneOf(Kind.class);
+                collect(watcher.take(), kinds);
+                // Ventana de agrupación: un guardado suele generar varios eventos seguidos
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMs);
+                long rem;
+                while ((rem = deadline - System.nanoTime()) > 0) {
+                    WatchKey k = watcher.poll(rem, TimeUnit.NANOSECONDS);
+                    if (k == null)
+                        break;
+                    collect(k, kinds);
+                }
+                publish(kinds);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            } catch (RuntimeException ignored) {
+            }
+        }
+    }
+
+    private void collect(WatchKey key, Set<Kind> kinds) {
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> ev : key.pollEvents()) {
+            if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                kinds.addAll(EnumSet.allOf(Kind.class)); // se perdieron eventos: avisar de todo
+                continue;
+            }
+            if (dir == null)
+                continue;
+            Kind k = classify(dir, (Path) ev.context());
+            if (k != null)
+                kinds.add(k);
+        }
+        key.reset();
+    }
+
+    /** Tipo de cambio según el archivo; temporales y respaldos se ignoran. */
+    private Kind classify(Path dir, Path name) {
+        String n = name.getFileName().toString();
+        if (n.endsWith(".tmp") || n.contains(".bak"))
+            return null;
+        if (dir.equals(recetasDir))
+            return Kind.RECIPES;
+        if (dir.equals(ventasDir))
+            return Kind.SALES;
+        if (n.equals("products.json") || n.equals("products.bin") || n.equals("stock.log")
+                || n.equals("stock.tbl"))
+            return Kind.PRODUCTS;
+        if (n.equals("sales.json") || n.equals("sales.bin"))
+            return Kind.SALES;
+        if (n.equals("recipes.json"))
+            return Kind.RECIPES;
+        return null;
+    }
+
+    private void publish(Set<Kind> kinds) {
+        for (Kind k : kinds) {
+            if (k == Kind.PRODUCTS && !storage.productsChangedExternally())
+                continue;
+            if (k == Kind.SALES && !storage.salesChangedExternally())
+                continue;
+            bus.publish(EventBus.Topic.FILES_CHANGED, new Change(k));
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.papeleria.pos.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/** Formato histórico: data/tickets/ticket-&lt;id&gt;.txt. */
+public class FileTicketStore implements TicketStore {
+    private final Path dir;
+
+    public FileTicketStore(Path dir) {
+        this.dir = dir;
+    }
+
+    @Override
+    public void write(String saleId, String text) throws IOException {
+        Files.createDirectories(dir);
+        Files.writeString(fileOf(saleId), text, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @Override
+    public void delete(String saleId) throws IOException {
+        Files.deleteIfExists(fileOf(saleId));
+    }
+
+    @Override
+    public Optional<String> read(String saleId) {
+        try {
+            Path f = fileOf(saleId);
+            if (Files.exists(f))
+                return Optional.of(Files.readString(f, StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        }
+        return Optional.empty();
+    }
+
+    Path fileOf(String saleId) {
+        return dir.resolve("ticket-" + saleId + ".txt");
+    }
+}
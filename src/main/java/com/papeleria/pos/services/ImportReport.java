@@ -0,0 +1,64 @@
+package com.papeleria.pos.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resultado de una importación de productos: filas leídas, productos
+ * importados y las filas rechazadas con su motivo (número inválido, SKU
+ * faltante). Se guardan a lo más MAX_ERRORS errores; getErrorCount() da el
+ * total.
+ */
+public class ImportReport {
+
+    static final int MAX_ERRORS = 500;
+
+    /** Fila rechazada: número de fila en la hoja (1 = encabezado), columna y valor leído. */
+    public record RowError(int row, String column, String value, String message) {
+        @Override
+        public String toString() {
+            return "Fila " + row + " (" + column + "): " + message
+                    + (value == null || value.isEmpty() ? "" : " \"" + value + "\"");
+        }
+    }
+
+    private int rowsRead = 0;
+    private int imported = 0;
+    private int errorCount = 0;
+    private final List<RowError> errors = new ArrayList<>();
+
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    public int getImported() {
+        return imported;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    /** Primeros MAX_ERRORS errores, en el orden de la hoja. */
+    public List<RowError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    /* ======================= Acumulación (etapa de fusión) ======================= */
+
+    void add(int filas, int importados, List<RowError> errs) {
+        rowsRead += filas;
+        imported += importados;
+        errorCount += errs.size();
+        for (RowError e : errs) {
+            if (errors.size() >= MAX_ERRORS)
+                break;
+            errors.add(e);
+        }
+    }
+}
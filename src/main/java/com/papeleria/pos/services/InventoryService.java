@@ -1,49 +1,105 @@
 package com.papeleria.pos.services;
 
 import com.papeleria.pos.models.Product;
-import org.apache.poi.ss.usermodel.Row;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 public class InventoryService {
+    /** Intervalo mínimo entre revisiones de mtime/tamaño del archivo de productos. */
+    private static final long STAMP_CHECK_MS = 2000;
+    /** Filas de Excel por lote del pipeline de importación. */
+    private static final int IMPORT_BATCH = 1000;
+
     private final StorageService storage;
     private final EventBus bus;
 
+    // Catálogo autoritativo en memoria, en el mismo orden que se persiste.
+    // La clave es keySku(sku): índice hash case-insensitive para búsquedas O(1).
+    private final Map<String, Product> catalog = new LinkedHashMap<>();
+    // Índice de n-gramas sobre SKU/nombre/categoría; se mantiene junto con catalog
+    private final ProductIndex index = new ProductIndex();
+    // Una importación a la vez; no es el monitor del servicio (ese lo usan las ventas)
+    private final Object importLock = new Object();
+    private StorageService.FileStamp loadedStamp = null;
+    // Huella del archivo de productos solo: si no cambió, basta refrescar el stock
+    private StorageService.FileStamp loadedBase = null;
+    private long lastStampCheck = 0L;
+
     public InventoryService(StorageService storage, EventBus bus) {
         this.storage = storage;
         this.bus = bus;
+        if (bus != null)
+            bus.subscribeEach(EventBus.Topic.FILES_CHANGED, this::onFilesChanged); // cada tipo cuenta
+    }
+
+    /** products.json/.bin editado por fuera: recarga ya (sin esperar STAMP_CHECK_MS) y avisa. */
+    private void onFilesChanged(Object payload) {
+        if (!(payload instanceof FileChangeService.Change c) || c.kind() != FileChangeService.Kind.PRODUCTS)
+            return;
+        synchronized (this) {
+            lastStampCheck = 0L;
+            catalog();
+        }
+        bus.publish(EventBus.Topic.INVENTORY_CHANGED, "external");
     }
 
     /* ======================= Lectura / Búsqueda ======================= */
 
-    /** Siempre lee desde disco para evitar caché desactualizado en otras vistas. */
+    /** Copia del catálogo en memoria; solo relee disco si el archivo de productos cambió por fuera. */
     public synchronized List<Product> list() {
-        return storage.loadProducts();
+        Map<String, Product> cat = catalog();
+        List<Product> out = new ArrayList<>(cat.size());
+        for (Product p : cat.values())
+            out.add(copy(p));
+        return out;
     }
 
+    /**
+     * Productos cuyo SKU, nombre o categoría contienen q (sin distinguir
+     * mayúsculas ni acentos), ordenados por relevancia. Usa el índice de n-gramas.
+     */
     public synchronized List<Product> search(String q) {
         if (q == null || q.isBlank())
             return list();
-        String s = q.toLowerCase(Locale.ROOT);
-        return list().stream().filter(p -> (p.getSku() != null && p.getSku().toLowerCase(Locale.ROOT).contains(s)) ||
-                (p.getNombre() != null && p.getNombre().toLowerCase(Locale.ROOT).contains(s)) ||
-                (p.getCategoria() != null && p.getCategoria().toLowerCase(Locale.ROOT).contains(s)))
-                .collect(Collectors.toList());
+        Map<String, Product> cat = catalog();
+        List<String> keys = index.search(q);
+        List<Product> out = new ArrayList<>(keys.size());
+        for (String k : keys) {
+            Product p = cat.get(k);
+            if (p != null)
+                out.add(copy(p));
+        }
+        return out;
     }
 
     public synchronized Optional<Product> findBySku(String sku) {
         if (sku == null)
             return Optional.empty();
-        String target = sku.trim();
-        for (Product p : list()) {
-            if (p.getSku() != null && p.getSku().equalsIgnoreCase(target))
-                return Optional.of(p);
+        Product p = catalog().get(keySku(sku));
+        return p == null ? Optional.empty() : Optional.of(copy(p));
+    }
+
+    /**
+     * Resuelve varios SKUs contra el índice; el mapa usa como clave el SKU tal
+     * como lo pasó el llamador y omite los que no existen.
+     */
+    public synchronized Map<String, Product> findAllBySku(Collection<String> skus) {
+        Map<String, Product> out = new LinkedHashMap<>();
+        if (skus == null)
+            return out;
+        Map<String, Product> cat = catalog();
+        for (String sku : skus) {
+            Product p = sku == null ? null : cat.get(keySku(sku));
+            if (p != null)
+                out.putIfAbsent(sku, copy(p));
         }
-        return Optional.empty();
+        return out;
     }
 
     /* ======================= Escritura / Mutaciones ======================= */
@@ -59,119 +115,342 @@ public class InventoryService {
         if (np.getStock() < 0)
             np.setStock(0);
 
-        List<Product> all = new ArrayList<>(list());
-
         // Reemplazo por SKU case-insensitive
-        int idx = indexOfSku(all, np.getSku());
-        if (idx >= 0) {
-            Product e = all.get(idx);
+        Product e = catalog().get(keySku(np.getSku()));
+        if (e != null) {
             e.setNombre(np.getNombre());
             e.setCategoria(np.getCategoria());
             e.setUnidad(np.getUnidad());
             e.setContenido(np.getContenido());
             e.setPrecio(round2(np.getPrecio()));
             e.setStock(np.getStock());
+            index.put(keySku(np.getSku()), e);
         } else {
-            all.add(np);
+            Product nuevo = copy(np);
+            catalog.put(keySku(np.getSku()), nuevo);
+            index.put(keySku(np.getSku()), nuevo);
         }
 
-        saveAndNotify(all, "upsert:" + np.getSku());
+        saveAndNotify("upsert:" + np.getSku());
     }
 
     public synchronized void removeBySku(String sku) {
         if (sku == null || sku.isBlank())
             return;
-        List<Product> all = new ArrayList<>(list());
-        all.removeIf(p -> p.getSku() != null && p.getSku().equalsIgnoreCase(sku));
-        saveAndNotify(all, "delete:" + sku);
+        if (catalog().remove(keySku(sku)) == null)
+            return;
+        index.remove(keySku(sku));
+        // Quitar no altera el orden del resto
+        persist();
+        if (bus != null)
+            bus.publish(EventBus.Topic.INVENTORY_CHANGED, "delete:" + sku);
     }
 
     public synchronized void clearAll() {
-        saveAndNotify(new ArrayList<>(), "clear");
+        catalog().clear();
+        index.clear();
+        saveAndNotify("clear");
     }
 
     public synchronized void adjustStock(String sku, double delta) {
         if (sku == null || sku.isBlank() || delta == 0)
             return;
-        List<Product> all = new ArrayList<>(list());
-        int idx = indexOfSku(all, sku);
-        if (idx >= 0) {
-            Product p = all.get(idx);
+        Product p = catalog().get(keySku(sku));
+        if (p != null) {
             p.setStock(Math.max(0, p.getStock() + delta));
-            saveAndNotify(all, "adjust:" + sku);
+            // Solo cambió el stock: va al almacén de stock, el catálogo no se reescribe
+            persistStock(Map.of(keySku(sku), p.getStock()));
+            if (bus != null)
+                bus.publish(EventBus.Topic.INVENTORY_CHANGED, "adjust:" + sku);
+        }
+    }
+
+    /**
+     * Aplica varios ajustes de stock (SKU -> delta) bajo un solo bloqueo, con
+     * una sola escritura y un solo evento. Los SKUs repetidos (sin importar
+     * mayúsculas) se suman; los inexistentes se ignoran. Devuelve cuántos
+     * productos cambiaron.
+     */
+    public synchronized int adjustStockBatch(Map<String, Double> deltas, String reason) {
+        if (deltas == null || deltas.isEmpty())
+            return 0;
+        Map<String, Double> porClave = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> e : deltas.entrySet()) {
+            if (e.getKey() == null || e.getKey().isBlank() || e.getValue() == null)
+                continue;
+            porClave.merge(keySku(e.getKey()), e.getValue(), Double::sum);
+        }
+        Map<String, Product> cat = catalog();
+        Map<String, Double> nuevos = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> e : porClave.entrySet()) {
+            Product p = cat.get(e.getKey());
+            if (p == null || e.getValue() == 0)
+                continue;
+            p.setStock(Math.max(0, p.getStock() + e.getValue()));
+            nuevos.put(e.getKey(), p.getStock());
+        }
+        int cambiados = nuevos.size();
+        if (cambiados == 0)
+            return 0;
+        persistStock(nuevos);
+        if (bus != null)
+            bus.publish(EventBus.Topic.INVENTORY_CHANGED, reason);
+        return cambiados;
+    }
+
+    /**
+     * Stock final (clave normalizada -> valor absoluto) que dejarían los deltas,
+     * partiendo de los valores de pending cuando ya hay cambios del mismo grupo
+     * aún sin aplicar. No modifica el catálogo; lo usa el cobro transaccional.
+     */
+    synchronized Map<String, Double> stockImages(Map<String, Double> deltas, Map<String, Double> pending) {
+        Map<String, Double> out = new LinkedHashMap<>();
+        Map<String, Product> cat = catalog();
+        for (Map.Entry<String, Double> e : deltas.entrySet()) {
+            if (e.getKey() == null || e.getKey().isBlank() || e.getValue() == null)
+                continue;
+            String key = keySku(e.getKey());
+            Product p = cat.get(key);
+            if (p == null)
+                continue;
+            double base = out.containsKey(key) ? out.get(key) : pending.getOrDefault(key, p.getStock());
+            out.put(key, Math.max(0, base + e.getValue()));
+        }
+        return out;
+    }
+
+    /** Fija el stock a valores absolutos (idempotente), con una escritura y un evento. */
+    synchronized void applyStockImages(Map<String, Double> images, String reason) {
+        Map<String, Product> cat = catalog();
+        Map<String, Double> nuevos = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> e : images.entrySet()) {
+            Product p = cat.get(keySku(e.getKey()));
+            if (p != null && e.getValue() != null) {
+                p.setStock(e.getValue());
+                nuevos.put(keySku(e.getKey()), e.getValue());
+            }
         }
+        if (nuevos.isEmpty())
+            return;
+        persistStock(nuevos);
+        if (bus != null)
+            bus.publish(EventBus.Topic.INVENTORY_CHANGED, reason);
     }
 
     /* ======================= Importación Excel ======================= */
 
-    public synchronized int importFromExcel(Path xlsxPath) throws IOException {
+    public int importFromExcel(Path xlsxPath) throws IOException {
+        return importFromExcel(xlsxPath, null).getImported();
+    }
+
+    /**
+     * Importa la primera hoja (fila 1 = encabezado; columnas SKU, nombre,
+     * categoría, unidad, contenido, precio y stock) en tres etapas:
+     * <ol>
+     * <li>lectura en streaming (ExcelRowReader) en el hilo que llama, en lotes
+     * de IMPORT_BATCH filas;</li>
+     * <li>conversión y validación de cada lote en un pool de trabajadores
+     * (pos.import.workers, por omisión núcleos - 1);</li>
+     * <li>fusión en un solo hilo y en el orden de la hoja a un mapa privado
+     * (staging).</li>
+     * </ol>
+     * Solo cuando todos los lotes terminaron bien se pasa el staging al
+     * catálogo y se guarda, de una vez y bajo el monitor del servicio; hasta
+     * entonces el catálogo no ve nada de la importación (las ventas siguen
+     * funcionando y un guardado concurrente no escribe un catálogo a medias).
+     * Si falla, el catálogo queda como estaba.
+     * Las filas con números inválidos no se importan y quedan en el reporte.
+     * progreso (si no es null) recibe las filas ya fusionadas.
+     */
+    public ImportReport importFromExcel(Path xlsxPath, IntConsumer progreso) throws IOException {
         if (xlsxPath == null || !Files.exists(xlsxPath))
             throw new IOException("Archivo no encontrado");
-        try (var in = Files.newInputStream(xlsxPath);
-                var wb = new org.apache.poi.xssf.usermodel.XSSFWorkbook(in)) {
-            var sheet = wb.getSheetAt(0);
-            if (sheet == null)
-                return 0;
-
-            // Carga actual en mapa por SKU case-insensitive
-            Map<String, Product> map = new LinkedHashMap<>();
-            for (Product p : list())
-                map.put(keySku(p.getSku()), p);
-
-            int count = 0;
-            int rowIndex = 0;
-            for (Row row : sheet) {
-                rowIndex++;
-                if (rowIndex == 1)
-                    continue; // header
-
-                var cSku = row.getCell(0);
-                if (cSku == null)
-                    continue;
-                String sku = cSku.toString().trim();
-                if (sku.isEmpty())
-                    continue;
-
-                String nombre = getString(row, 1);
-                String categoria = getString(row, 2);
-                String unidad = getString(row, 3);
-                double contenido = getDouble(row, 4);
-                double precio = getDouble(row, 5);
-                double stock = getDouble(row, 6);
-
-                Product np = new Product(sku, nombre, categoria, unidad, contenido, round2(precio),
-                        stock < 0 ? 0 : stock);
-                map.put(keySku(sku), np);
-                count++;
+
+        synchronized (importLock) {
+            ImportReport report = new ImportReport();
+            int workers = Math.max(1, Integer.getInteger("pos.import.workers",
+                    Runtime.getRuntime().availableProcessors() - 1));
+            ExecutorService parsers = Executors.newFixedThreadPool(workers, daemon("pos-import-parse"));
+            ExecutorService merger = Executors.newSingleThreadExecutor(daemon("pos-import-merge"));
+            // Lotes en vuelo (leídos y aún sin fusionar): acota la memoria si la lectura va adelante
+            Semaphore enVuelo = new Semaphore(workers * 2);
+            List<Future<?>> fusiones = new ArrayList<>();
+            // Solo lo toca el hilo de fusión hasta que termina la importación
+            Map<String, Product> staging = new LinkedHashMap<>();
+            RawBatch[] actual = { new RawBatch() };
+            boolean[] header = { true };
+            int[] filasLeidas = { 0 };
+            boolean ok = false;
+            try {
+                ExcelRowReader.read(xlsxPath, 7, (rowNum, cells) -> {
+                    if (header[0]) {
+                        header[0] = false;
+                        return;
+                    }
+                    filasLeidas[0]++;
+                    actual[0].add(rowNum, cells);
+                    if (actual[0].size() >= IMPORT_BATCH) {
+                        fusiones.add(submit(actual[0], filasLeidas[0], parsers, merger, enVuelo, staging, report,
+                                progreso));
+                        actual[0] = new RawBatch();
+                    }
+                });
+                if (actual[0].size() > 0)
+                    fusiones.add(submit(actual[0], filasLeidas[0], parsers, merger, enVuelo, staging, report,
+                            progreso));
+                for (Future<?> f : fusiones)
+                    f.get();
+                ok = true;
+            } catch (ImportInterrupted | InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Importación interrumpida", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Error importando: " + e.getCause().getMessage(), e.getCause());
+            } finally {
+                parsers.shutdownNow();
+                merger.shutdownNow();
+                if (!ok)
+                    awaitQuietly(parsers, merger); // nada del pipeline sigue corriendo al volver
             }
 
-            List<Product> merged = new ArrayList<>(map.values());
-            saveAndNotify(merged, "bulk-import");
-            return count;
+            synchronized (this) {
+                catalog();
+                catalog.putAll(staging);
+                for (Map.Entry<String, Product> e : staging.entrySet())
+                    index.put(e.getKey(), e.getValue());
+                saveAndNotify("bulk-import");
+            }
+            return report;
         }
     }
 
-    private String getString(Row row, int idx) {
-        var c = row.getCell(idx);
-        return c == null ? "" : c.toString().trim();
+    private static void awaitQuietly(ExecutorService... pools) {
+        boolean interrumpido = false;
+        for (ExecutorService pool : pools) {
+            while (true) {
+                try {
+                    if (pool.awaitTermination(1, TimeUnit.MINUTES))
+                        break;
+                } catch (InterruptedException e) {
+                    interrumpido = true;
+                }
+            }
+        }
+        if (interrumpido)
+            Thread.currentThread().interrupt();
     }
 
-    private double getDouble(Row row, int idx) {
-        var c = row.getCell(idx);
-        if (c == null)
-            return 0.0;
+    /** Filas crudas de un lote, tal como salen del lector. */
+    private static final class RawBatch {
+        final int[] rows = new int[IMPORT_BATCH];
+        final String[][] cells = new String[IMPORT_BATCH][];
+        int n;
+
+        void add(int row, String[] c) {
+            rows[n] = row;
+            cells[n++] = c;
+        }
+
+        int size() {
+            return n;
+        }
+    }
+
+    /** Lote ya convertido: productos válidos por keySku y errores por fila. */
+    private static final class ParsedBatch {
+        final Map<String, Product> products = new LinkedHashMap<>();
+        final List<ImportReport.RowError> errors = new ArrayList<>();
+        int filas;
+        int importados;
+    }
+
+    /** Lanzada desde el lector si el hilo se interrumpe esperando lugar en el pipeline. */
+    private static final class ImportInterrupted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ImportInterrupted(InterruptedException cause) {
+            super(cause);
+        }
+    }
+
+    /** Encola la conversión del lote en el pool y su fusión (en orden) al staging en el hilo de fusión. */
+    private Future<?> submit(RawBatch raw, int filasHasta, ExecutorService parsers, ExecutorService merger,
+            Semaphore enVuelo, Map<String, Product> staging, ImportReport report, IntConsumer progreso) {
         try {
-            switch (c.getCellType()) {
-                case NUMERIC:
-                    return c.getNumericCellValue();
-                case STRING:
-                default:
-                    String s = c.toString().trim().replace(",", ".");
-                    return s.isEmpty() ? 0.0 : Double.parseDouble(s);
+            enVuelo.acquire();
+        } catch (InterruptedException e) {
+            throw new ImportInterrupted(e);
+        }
+        Future<ParsedBatch> parsed = parsers.submit(() -> parseBatch(raw));
+        return merger.submit(() -> {
+            try {
+                ParsedBatch b = parsed.get();
+                staging.putAll(b.products);
+                report.add(b.filas, b.importados, b.errors);
+                if (progreso != null)
+                    progreso.accept(filasHasta);
+                return null;
+            } finally {
+                enVuelo.release();
+            }
+        });
+    }
+
+    /** Convierte y valida un lote; no toca el catálogo (corre en el pool). */
+    private ParsedBatch parseBatch(RawBatch raw) {
+        ParsedBatch out = new ParsedBatch();
+        out.filas = raw.n;
+        for (int i = 0; i < raw.n; i++) {
+            int row = raw.rows[i];
+            String[] cells = raw.cells[i];
+            String sku = cells[0].trim();
+            if (sku.isEmpty()) {
+                // Filas totalmente vacías se ignoran como antes; con datos pero sin SKU se reportan
+                for (int c = 1; c < cells.length; c++) {
+                    if (!cells[c].isBlank()) {
+                        out.errors.add(new ImportReport.RowError(row, "SKU", "", "falta el SKU"));
+                        break;
+                    }
+                }
+                continue;
             }
-        } catch (Exception e) {
+
+            int antes = out.errors.size();
+            double contenido = parseCell(cells[4], row, "Contenido", out.errors);
+            double precio = parseCell(cells[5], row, "Precio", out.errors);
+            double stock = parseCell(cells[6], row, "Stock", out.errors);
+            if (out.errors.size() > antes)
+                continue;
+
+            Product np = new Product(sku, cells[1].trim(), cells[2].trim(), cells[3].trim(), contenido,
+                    round2(precio), stock < 0 ? 0 : stock);
+            out.products.put(keySku(sku), np);
+            out.importados++;
+        }
+        return out;
+    }
+
+    /** Número de una celda en texto ("" = 0; admite coma decimal); inválido se reporta y da NaN. */
+    private static double parseCell(String v, int row, String column, List<ImportReport.RowError> errors) {
+        String s = v == null ? "" : v.trim().replace(",", ".");
+        if (s.isEmpty())
             return 0.0;
+        try {
+            double d = Double.parseDouble(s);
+            if (Double.isFinite(d))
+                return d;
+        } catch (NumberFormatException ignored) {
         }
+        errors.add(new ImportReport.RowError(row, column, v.trim(), "no es un número válido"));
+        return Double.NaN;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
     }
 
     /* ======================= Utilidades de conversión ======================= */
@@ -202,17 +481,6 @@ public class InventoryService {
 
     /* ======================= Helpers internos ======================= */
 
-    private int indexOfSku(List<Product> list, String sku) {
-        if (sku == null)
-            return -1;
-        for (int i = 0; i < list.size(); i++) {
-            Product p = list.get(i);
-            if (p.getSku() != null && p.getSku().equalsIgnoreCase(sku))
-                return i;
-        }
-        return -1;
-    }
-
     private String keySku(String sku) {
         return sku == null ? "" : sku.trim().toLowerCase(Locale.ROOT);
     }
@@ -221,14 +489,92 @@ public class InventoryService {
         return Math.round(v * 100.0) / 100.0;
     }
 
+    private static Product copy(Product p) {
+        return new Product(p.getSku(), p.getNombre(), p.getCategoria(), p.getUnidad(),
+                p.getContenido(), p.getPrecio(), p.getStock());
+    }
+
+    /**
+     * Catálogo en memoria. Se carga la primera vez y solo se recarga si
+     * el archivo de productos fue modificado por fuera (mtime/tamaño); la revisión del
+     * archivo se limita a una cada STAMP_CHECK_MS para no tocar disco en cada venta.
+     * Si solo cambió el almacén de stock (cobros de otra caja) se aplican esos
+     * valores sin volver a leer el catálogo.
+     */
+    private Map<String, Product> catalog() {
+        long now = System.currentTimeMillis();
+        if (loadedStamp == null || now - lastStampCheck >= STAMP_CHECK_MS) {
+            lastStampCheck = now;
+            StorageService.FileStamp st = storage.productsStamp();
+            StorageService.FileStamp base = storage.productsBaseStamp();
+            if (!st.equals(loadedStamp) && loadedStamp != null && base.equals(loadedBase)) {
+                for (Map.Entry<String, Double> e : storage.loadStock().entrySet()) {
+                    Product p = catalog.get(e.getKey());
+                    if (p != null)
+                        p.setStock(e.getValue());
+                }
+                loadedStamp = st;
+            } else if (!st.equals(loadedStamp)) {
+                catalog.clear();
+                for (Product p : storage.loadProducts())
+                    catalog.putIfAbsent(keySku(p.getSku()), p);
+                index.rebuild(catalog);
+                loadedStamp = st;
+                loadedBase = base;
+            }
+        }
+        return catalog;
+    }
+
+    /** Escribe el catálogo completo en memoria a disco (write-through); reinicia el almacén de stock. */
+    private void persist() {
+        try {
+            storage.saveProducts(new ArrayList<>(catalog.values()));
+        } catch (RuntimeException e) {
+            // Memoria y disco ya no coinciden: fuerza recarga en la siguiente lectura
+            loadedStamp = null;
+            throw e;
+        }
+        loadedStamp = storage.productsStamp();
+        loadedBase = storage.productsBaseStamp();
+        lastStampCheck = System.currentTimeMillis();
+    }
+
+    /**
+     * Guarda solo el stock que cambió (clave -> valor absoluto) en el almacén
+     * de stock; si pide compactarse o no corresponde al archivo actual se
+     * reescribe el catálogo completo.
+     */
+    private void persistStock(Map<String, Double> stock) {
+        boolean ok;
+        try {
+            ok = storage.saveStock(stock);
+        } catch (RuntimeException e) {
+            loadedStamp = null;
+            throw e;
+        }
+        if (!ok) {
+            persist();
+            return;
+        }
+        loadedStamp = storage.productsStamp();
+        loadedBase = storage.productsBaseStamp();
+        lastStampCheck = System.currentTimeMillis();
+    }
+
     /** Guarda ordenado por nombre y emite INVENTORY_CHANGED. */
-    private void saveAndNotify(List<Product> all, String reason) {
-        // orden consistente por nombre y luego SKU
+    private void saveAndNotify(String reason) {
+        // orden consistente por nombre y luego SKU; el índice desempata igual
+        List<Product> all = new ArrayList<>(catalog.values());
         all.sort(Comparator.comparing(
                 (Product p) -> p.getNombre() == null ? "" : p.getNombre().toLowerCase(Locale.ROOT))
                 .thenComparing(p -> p.getSku() == null ? "" : p.getSku().toLowerCase(Locale.ROOT)));
 
-        storage.saveProducts(all);
+        catalog.clear();
+        for (Product p : all)
+            catalog.put(keySku(p.getSku()), p);
+
+        persist();
         if (bus != null)
             bus.publish(EventBus.Topic.INVENTORY_CHANGED, reason);
     }
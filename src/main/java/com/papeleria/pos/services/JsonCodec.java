@@ -0,0 +1,88 @@
+package com.papeleria.pos.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/** Arreglo JSON; compacto o indentado según el Gson recibido. */
+public class JsonCodec implements StorageCodec {
+    private final Gson gson;
+    private final boolean pretty;
+
+    public JsonCodec(Gson gson, boolean pretty) {
+        this.gson = gson;
+        this.pretty = pretty;
+    }
+
+    public boolean isPretty() {
+        return pretty;
+    }
+
+    @Override
+    public String extension() {
+        return "json";
+    }
+
+    @Override
+    public boolean recognizes(byte[] head) {
+        for (byte b : head) {
+            if (b == '[' || b == '{')
+                return true;
+            if (!Character.isWhitespace(b) && b != (byte) 0xEF && b != (byte) 0xBB && b != (byte) 0xBF)
+                return false; // admite BOM UTF-8
+        }
+        return false;
+    }
+
+    @Override
+    public <T> List<T> readList(InputStream in, Class<T> type) throws IOException {
+        Reader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        List<T> list = gson.fromJson(r, TypeToken.getParameterized(List.class, type).getType());
+        return list != null ? list : new ArrayList<>();
+    }
+
+    @Override
+    public <T> void forEach(InputStream in, Class<T> type, Consumer<? super T> visitor) throws IOException {
+        JsonReader r = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        try {
+            if (r.peek() == JsonToken.NULL)
+                return;
+            r.beginArray();
+            while (r.hasNext())
+                visitor.accept(gson.fromJson(r, type));
+            r.endArray();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("JSON inválido", e);
+        }
+    }
+
+    @Override
+    public void verify(InputStream in) throws IOException {
+        JsonReader r = new JsonReader(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)));
+        try {
+            JsonToken first = r.peek();
+            if (first != JsonToken.BEGIN_ARRAY && first != JsonToken.BEGIN_OBJECT)
+                throw new IOException("JSON sin arreglo/objeto raíz");
+            r.skipValue();
+            if (r.peek() != JsonToken.END_DOCUMENT)
+                throw new IOException("Contenido extra después del JSON");
+        } catch (RuntimeException e) {
+            throw new IOException("JSON inválido", e);
+        }
+    }
+
+    @Override
+    public <T> void writeList(OutputStream out, List<T> items, Class<T> type) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        gson.toJson(items, TypeToken.getParameterized(List.class, type).getType(), w);
+        w.flush();
+    }
+}
@@ -0,0 +1,336 @@
+package com.papeleria.pos.services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * StockStore en tabla de ancho fijo mapeada en memoria: data/stock.tbl
+ * (pos.stock.store=mapped).
+ *
+ * Encabezado de 64 bytes: "PSTT", versión de formato, huella del archivo de
+ * productos, slots usados, capacidad, generación (sube en cada escritura),
+ * época (sube en cada reescritura completa) y CRC32 del encabezado. Después, un slot de 64 bytes por SKU: clave (hasta
+ * MAX_KEY bytes UTF-8), stock, número de secuencia y CRC32 del slot.
+ *
+ * A diferencia de StockLog guarda el stock de todos los productos y lo
+ * actualiza en su lugar: un cobro escribe 64 bytes (más el encabezado) sin
+ * crecer nunca, y leer todo el stock es recorrer la tabla, sin JSON. Varias
+ * cajas en el mismo equipo comparten las páginas del archivo; las
+ * escrituras se serializan con un FileLock. Un slot con CRC inválido se
+ * ignora (vale el stock del archivo de productos).
+ *
+ * Cada caja guarda en memoria el mapa SKU -> slot; si la época cambió
+ * (otra caja reescribió la tabla, posiblemente con otro orden) el mapa se
+ * descarta y se vuelve a leer. Antes de escribir un valor se compara además
+ * la clave guardada en el slot.
+ *
+ * SKUs de más de MAX_KEY bytes no caben en un slot: write() devuelve false
+ * y ese cambio se guarda con una escritura completa del catálogo.
+ */
+final class MappedStockTable implements StockStore {
+
+    private static final int MAGIC = 0x50535454; // "PSTT"
+    private static final int VERSION = 2;
+    private static final int HEADER = 64;
+    private static final int SLOT = 64;
+    static final int MAX_KEY = 39;
+
+    // Posiciones en el encabezado
+    private static final int H_MODIFIED = 8;
+    private static final int H_SIZE = 16;
+    private static final int H_COUNT = 24;
+    private static final int H_CAPACITY = 28;
+    private static final int H_GENERATION = 32;
+    private static final int H_EPOCH = 40;
+    private static final int H_CRC = 56;
+
+    // Posiciones dentro de un slot
+    private static final int S_KEY = 1;
+    private static final int S_VALUE = 40;
+    private static final int S_SEQ = 48;
+    private static final int S_CRC = 56;
+
+    private final Path path;
+    private final boolean fsync;
+    private FileChannel channel;
+    private MappedByteBuffer map;
+    // clave -> índice de slot, para los slots ya leídos (0..conocidos-1)
+    private final Map<String, Integer> slots = new HashMap<>();
+    private int conocidos = 0;
+    // Época del encabezado con la que se armó slots
+    private long epocaVista = -1L;
+
+    MappedStockTable(Path path) {
+        this.path = path;
+        this.fsync = !"false".equalsIgnoreCase(System.getProperty("pos.stock.fsync", "true").trim());
+    }
+
+    /* ======================= StockStore ======================= */
+
+    @Override
+    public synchronized Map<String, Double> load(StorageService.FileStamp productos) {
+        Map<String, Double> out = new HashMap<>();
+        try {
+            open();
+            if (!headerValid() || !baseOf().equals(productos))
+                return out;
+            refresh();
+            for (Map.Entry<String, Integer> e : slots.entrySet()) {
+                int off = HEADER + e.getValue() * SLOT;
+                if (slotValid(off))
+                    out.put(e.getKey(), map.getDouble(off + S_VALUE));
+            }
+        } catch (IOException e) {
+            out.clear();
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized boolean write(StorageService.FileStamp productos, Map<String, Double> stock)
+            throws IOException {
+        for (String k : stock.keySet())
+            if (keyBytes(StockStore.key(k)).length > MAX_KEY)
+                return false;
+        open();
+        FileLock lock = channel.lock();
+        try {
+            if (!headerValid() || !baseOf().equals(productos))
+                return false;
+            refresh();
+            int min = Integer.MAX_VALUE;
+            int max = -1;
+            for (Map.Entry<String, Double> e : stock.entrySet()) {
+                int slot = slotFor(StockStore.key(e.getKey()));
+                if (slot < 0)
+                    return false;
+                putValue(HEADER + slot * SLOT, e.getValue());
+                min = Math.min(min, slot);
+                max = Math.max(max, slot);
+            }
+            touchHeader();
+            if (fsync && max >= 0) {
+                map.force(HEADER + min * SLOT, (max - min + 1) * SLOT);
+                map.force(0, HEADER);
+            }
+            return true;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /** Reescribe la tabla completa con el stock de todos los productos de la nueva base. */
+    @Override
+    public synchronized void reset(StorageService.FileStamp productos, Map<String, Double> todos)
+            throws IOException {
+        open();
+        FileLock lock = channel.lock();
+        try {
+            // Primero se invalida la base: una caída a medias deja la tabla sin usar, no mezclada
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(H_CAPACITY, (map.capacity() - HEADER) / SLOT);
+            map.putLong(H_MODIFIED, 0L).putLong(H_SIZE, -1L).putInt(H_COUNT, 0);
+            touchHeader();
+            if (fsync)
+                map.force(0, HEADER);
+            slots.clear();
+            conocidos = 0;
+            int n = 0;
+            for (String k : todos.keySet())
+                if (keyBytes(StockStore.key(k)).length <= MAX_KEY)
+                    n++;
+            ensureCapacity(n);
+            for (Map.Entry<String, Double> e : todos.entrySet()) {
+                String k = StockStore.key(e.getKey());
+                byte[] kb = keyBytes(k);
+                if (kb.length > MAX_KEY || slots.containsKey(k))
+                    continue;
+                int slot = conocidos++;
+                writeSlot(HEADER + slot * SLOT, kb, e.getValue(), 0L);
+                slots.put(k, slot);
+            }
+            long epoca = map.getLong(H_EPOCH) + 1;
+            map.putLong(H_MODIFIED, productos.modified()).putLong(H_SIZE, productos.size())
+                    .putInt(H_COUNT, conocidos).putLong(H_EPOCH, epoca);
+            epocaVista = epoca;
+            touchHeader();
+            if (fsync)
+                map.force();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /** Se actualiza en su lugar: nunca pide compactar. */
+    @Override
+    public boolean needsCheckpoint() {
+        return false;
+    }
+
+    /** Generación del encabezado: cambia con cada escritura, también las de otras cajas. */
+    @Override
+    public synchronized long version() {
+        try {
+            open();
+            return map.getLong(H_GENERATION);
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public Path path() {
+        return path;
+    }
+
+    /* ======================= Tabla ======================= */
+
+    private void open() throws IOException {
+        if (channel != null && channel.isOpen())
+            return;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < HEADER) {
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() < HEADER) {
+                    remap(HEADER + 64L * SLOT);
+                    map.putInt(0, MAGIC).putInt(4, VERSION).putLong(H_MODIFIED, 0L).putLong(H_SIZE, -1L)
+                            .putInt(H_COUNT, 0).putInt(H_CAPACITY, 64).putLong(H_GENERATION, 0L)
+                            .putLong(H_EPOCH, 0L);
+                    touchHeader();
+                    map.force();
+                    return;
+                }
+            } finally {
+                lock.release();
+            }
+        }
+        remap(channel.size());
+    }
+
+    private void remap(long size) throws IOException {
+        if (channel.size() < size)
+            channel.write(ByteBuffer.wrap(new byte[1]), size - 1);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /** Lee los slots que otra caja haya agregado; si reescribió la tabla (otra época) se leen todos. */
+    private void refresh() throws IOException {
+        long needed = HEADER + (long) map.getInt(H_CAPACITY) * SLOT;
+        if (map.capacity() < needed)
+            remap(Math.max(needed, channel.size()));
+        int count = map.getInt(H_COUNT);
+        long epoca = map.getLong(H_EPOCH);
+        if (epoca != epocaVista || count < conocidos) {
+            slots.clear();
+            conocidos = 0;
+            epocaVista = epoca;
+        }
+        for (; conocidos < count; conocidos++) {
+            int off = HEADER + conocidos * SLOT;
+            int len = map.get(off) & 0xFF;
+            if (len == 0 || len > MAX_KEY)
+                continue;
+            byte[] kb = new byte[len];
+            map.get(off + S_KEY, kb);
+            slots.put(new String(kb, StandardCharsets.UTF_8), conocidos);
+        }
+    }
+
+    /**
+     * Slot de la clave; si no existe se agrega al final (crece la tabla si hace
+     * falta). -1 si el slot en caché guarda otra clave aun después de releer.
+     */
+    private int slotFor(String k) throws IOException {
+        byte[] kb = keyBytes(k);
+        Integer s = slots.get(k);
+        if (s != null && !keyAt(HEADER + s * SLOT, kb)) {
+            // El mapa no corresponde a la tabla: se relee completo
+            slots.clear();
+            conocidos = 0;
+            refresh();
+            s = slots.get(k);
+            if (s != null && !keyAt(HEADER + s * SLOT, kb))
+                return -1;
+        }
+        if (s != null)
+            return s;
+        ensureCapacity(conocidos + 1);
+        int slot = conocidos;
+        writeSlot(HEADER + slot * SLOT, kb, 0.0, 0L);
+        slots.put(k, slot);
+        conocidos++;
+        map.putInt(H_COUNT, conocidos); // después del slot: quien lea el conteo ya lo ve completo
+        return slot;
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        int cap = map.getInt(H_CAPACITY);
+        if (n <= cap)
+            return;
+        int nueva = Math.max(n, cap * 2);
+        remap(HEADER + (long) nueva * SLOT);
+        map.putInt(H_CAPACITY, nueva);
+    }
+
+    private void putValue(int off, double v) {
+        long seq = map.getLong(off + S_SEQ) + 1;
+        map.putDouble(off + S_VALUE, v).putLong(off + S_SEQ, seq);
+        map.putInt(off + S_CRC, crc(off, S_CRC));
+    }
+
+    private void writeSlot(int off, byte[] kb, double v, long seq) {
+        map.put(off, (byte) kb.length);
+        map.put(off + S_KEY, kb);
+        for (int i = S_KEY + kb.length; i < S_VALUE; i++)
+            map.put(off + i, (byte) 0);
+        map.putDouble(off + S_VALUE, v).putLong(off + S_SEQ, seq);
+        map.putInt(off + S_CRC, crc(off, S_CRC));
+    }
+
+    private boolean keyAt(int off, byte[] kb) {
+        if ((map.get(off) & 0xFF) != kb.length)
+            return false;
+        for (int i = 0; i < kb.length; i++)
+            if (map.get(off + S_KEY + i) != kb[i])
+                return false;
+        return true;
+    }
+
+    private boolean slotValid(int off) {
+        return map.getInt(off + S_CRC) == crc(off, S_CRC);
+    }
+
+    private boolean headerValid() {
+        return map.getInt(0) == MAGIC && map.getInt(4) == VERSION && map.getInt(H_CRC) == crc(0, H_CRC);
+    }
+
+    private StorageService.FileStamp baseOf() {
+        return new StorageService.FileStamp(map.getLong(H_MODIFIED), map.getLong(H_SIZE));
+    }
+
+    /** Sube la generación y recalcula el CRC del encabezado. */
+    private void touchHeader() {
+        map.putLong(H_GENERATION, map.getLong(H_GENERATION) + 1);
+        map.putInt(H_CRC, crc(0, H_CRC));
+    }
+
+    private int crc(int off, int len) {
+        CRC32 c = new CRC32();
+        c.update(map.slice(off, len));
+        return (int) c.getValue();
+    }
+
+    private static byte[] keyBytes(String k) {
+        return k.getBytes(StandardCharsets.UTF_8);
+    }
+}
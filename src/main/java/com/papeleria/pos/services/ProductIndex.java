@@ -0,0 +1,256 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Product;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Índice de n-gramas (bigramas y trigramas) en memoria sobre SKU, nombre y
+ * categoría.
+ *
+ * Los textos se pliegan (minúsculas y sin acentos: "Cartulína" -> "cartulina").
+ * Cada producto recibe un id interno creciente y se anexa a la lista de
+ * ocurrencias de cada n-grama de sus campos; una búsqueda toma la lista más
+ * corta de los n-gramas de la consulta y solo verifica esos candidatos.
+ * Consultas de una letra recorren los textos ya plegados.
+ *
+ * Quitar o reemplazar un producto deja su id como hueco; cuando los huecos
+ * superan a los vivos el índice se compacta. No es seguro para hilos: lo usa
+ * InventoryService bajo su propio bloqueo.
+ */
+final class ProductIndex {
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    private static final int[] VACIO = new int[0];
+
+    /** Textos plegados de un producto; key == null marca un hueco. */
+    private static final class Doc {
+        String key;
+        final String sku;
+        final String nombre;
+        final String categoria;
+
+        Doc(String key, String sku, String nombre, String categoria) {
+            this.key = key;
+            this.sku = sku;
+            this.nombre = nombre;
+            this.categoria = categoria;
+        }
+    }
+
+    /** Lista de ids en orden creciente (se anexan, nunca se insertan en medio). */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int n;
+
+        void add(int id) {
+            if (n == ids.length)
+                ids = Arrays.copyOf(ids, n * 2);
+            ids[n++] = id;
+        }
+    }
+
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> idOf = new HashMap<>();
+    private final Map<Long, Postings> ngramas = new HashMap<>();
+    private int huecos = 0;
+    // Posición de catálogo (nombre, SKU) por id y su inversa; se recalcula tras cambios
+    private int[] rango = VACIO;
+    private int[] porRango = VACIO;
+    private boolean rangoSucio = true;
+
+    /* ======================= Mantenimiento ======================= */
+
+    /** Agrega o reemplaza el producto bajo la clave dada (keySku). */
+    void put(String key, Product p) {
+        remove(key);
+        int id = docs.size();
+        Doc d = new Doc(key, fold(p.getSku()), fold(p.getNombre()), fold(p.getCategoria()));
+        docs.add(d);
+        idOf.put(key, id);
+        rangoSucio = true;
+        Set<Long> vistos = new HashSet<>();
+        addNgrams(d.sku, id, vistos);
+        addNgrams(d.nombre, id, vistos);
+        addNgrams(d.categoria, id, vistos);
+    }
+
+    void remove(String key) {
+        Integer id = idOf.remove(key);
+        if (id == null)
+            return;
+        docs.get(id).key = null;
+        huecos++;
+        rangoSucio = true;
+        if (huecos > 1024 && huecos > idOf.size())
+            compact();
+    }
+
+    void clear() {
+        docs.clear();
+        idOf.clear();
+        ngramas.clear();
+        huecos = 0;
+        rangoSucio = true;
+    }
+
+    /** Reconstruye con un catálogo completo (carga inicial o recarga desde disco). */
+    void rebuild(Map<String, Product> catalog) {
+        clear();
+        for (Map.Entry<String, Product> e : catalog.entrySet())
+            put(e.getKey(), e.getValue());
+    }
+
+    private void addNgrams(String s, int id, Set<Long> vistos) {
+        for (int i = 0; i + 2 <= s.length(); i++) {
+            long b = bigram(s, i);
+            if (vistos.add(b))
+                ngramas.computeIfAbsent(b, k -> new Postings()).add(id);
+            if (i + 3 <= s.length()) {
+                long t = trigram(s, i);
+                if (vistos.add(t))
+                    ngramas.computeIfAbsent(t, k -> new Postings()).add(id);
+            }
+        }
+    }
+
+    private void compact() {
+        List<Doc> vivos = new ArrayList<>(idOf.size());
+        for (Doc d : docs)
+            if (d.key != null)
+                vivos.add(d);
+        clear();
+        for (Doc d : vivos) {
+            int id = docs.size();
+            docs.add(d);
+            idOf.put(d.key, id);
+            Set<Long> vistos = new HashSet<>();
+            addNgrams(d.sku, id, vistos);
+            addNgrams(d.nombre, id, vistos);
+            addNgrams(d.categoria, id, vistos);
+        }
+    }
+
+    /* ======================= Búsqueda ======================= */
+
+    /**
+     * Claves (keySku) de los productos cuyo SKU, nombre o categoría contienen
+     * la consulta, ordenadas por relevancia: SKU exacto, SKU que empieza igual,
+     * nombre que empieza igual, palabra del nombre que empieza igual, el resto
+     * de coincidencias en SKU/nombre y al final las de categoría. A igual
+     * relevancia se ordena por nombre y luego SKU, el mismo orden con que
+     * InventoryService guarda el catálogo (los ids internos no sirven: un
+     * producto reemplazado recibe un id nuevo al final).
+     */
+    List<String> search(String query) {
+        String q = fold(query);
+        if (q.isEmpty())
+            return List.of();
+
+        int[] candidatos;
+        int n;
+        if (q.length() < 2) {
+            candidatos = null; // todos
+            n = docs.size();
+        } else {
+            Postings menor = null;
+            int paso = q.length() == 2 ? 2 : 3;
+            for (int i = 0; i + paso <= q.length(); i++) {
+                Postings p = ngramas.get(paso == 2 ? bigram(q, i) : trigram(q, i));
+                if (p == null)
+                    return List.of(); // un n-grama sin ocurrencias: no hay resultado
+                if (menor == null || p.n < menor.n)
+                    menor = p;
+            }
+            candidatos = menor == null ? VACIO : menor.ids;
+            n = menor == null ? 0 : menor.n;
+        }
+
+        ordenarCatalogo();
+        String palabra = " " + q;
+        // (score << 32 | id) en un long[]: se ordena sin objetos intermedios
+        long[] hits = new long[Math.min(n, 64)];
+        int h = 0;
+        for (int i = 0; i < n; i++) {
+            int id = candidatos == null ? i : candidatos[i];
+            Doc d = docs.get(id);
+            if (d.key == null)
+                continue;
+            int score = score(d, q, palabra);
+            if (score < 0)
+                continue;
+            if (h == hits.length)
+                hits = Arrays.copyOf(hits, h * 2);
+            hits[h++] = ((long) score << 32) | rango[id];
+        }
+        Arrays.sort(hits, 0, h);
+        List<String> out = new ArrayList<>(h);
+        for (int i = 0; i < h; i++)
+            out.add(docs.get(porRango[(int) hits[i]]).key);
+        return out;
+    }
+
+    /** Recalcula rango/porRango si el índice cambió desde la última búsqueda. */
+    private void ordenarCatalogo() {
+        if (!rangoSucio)
+            return;
+        Integer[] ids = new Integer[docs.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i;
+        Arrays.sort(ids, (a, b) -> {
+            Doc x = docs.get(a);
+            Doc y = docs.get(b);
+            int c = x.nombre.compareTo(y.nombre);
+            return c != 0 ? c : x.sku.compareTo(y.sku);
+        });
+        rango = new int[ids.length];
+        porRango = new int[ids.length];
+        for (int r = 0; r < ids.length; r++) {
+            rango[ids[r]] = r;
+            porRango[r] = ids[r];
+        }
+        rangoSucio = false;
+    }
+
+    /** Menor es mejor; -1 si no coincide. */
+    private static int score(Doc d, String q, String palabra) {
+        if (d.sku.equals(q))
+            return 0;
+        if (d.sku.startsWith(q))
+            return 1;
+        if (d.nombre.startsWith(q))
+            return 2;
+        if (d.nombre.contains(palabra))
+            return 3;
+        if (d.sku.contains(q) || d.nombre.contains(q))
+            return 4;
+        if (d.categoria.contains(q))
+            return 5;
+        return -1;
+    }
+
+    /* ======================= Plegado ======================= */
+
+    /** Minúsculas, sin acentos ni diéresis y con espacios colapsados. */
+    static String fold(String s) {
+        if (s == null || s.isEmpty())
+            return "";
+        String t = s.trim().toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < t.length() && ascii; i++)
+            ascii = t.charAt(i) < 128;
+        if (!ascii)
+            t = MARCAS.matcher(Normalizer.normalize(t, Normalizer.Form.NFD)).replaceAll("");
+        return t.replaceAll("\\s+", " ");
+    }
+
+    private static long bigram(String s, int i) {
+        return (1L << 48) | ((long) s.charAt(i) << 16) | s.charAt(i + 1);
+    }
+
+    private static long trigram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+}
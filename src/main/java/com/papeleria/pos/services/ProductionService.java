@@ -1,8 +1,10 @@
 package com.papeleria.pos.services;
 
 import com.papeleria.pos.models.Product;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 /**
  * Produce: valida en BASE, descuenta en unidad del producto y crea PF con
@@ -12,6 +14,7 @@ public class ProductionService {
     private final InventoryService inventory;
     private final EventBus bus;
     private final StorageService storage; // no usado
+    private final RecipesStore recipes;
 
     public ProductionService(InventoryService inventory, EventBus bus) {
         this(inventory, bus, null);
@@ -21,6 +24,12 @@ public class ProductionService {
         this.inventory = inventory;
         this.bus = bus;
         this.storage = storage;
+        this.recipes = storage == null ? new RecipesStore() : new RecipesStore(storage);
+    }
+
+    /** Repositorio de recetas compartido (índice en memoria). */
+    public RecipesStore getRecipes() {
+        return recipes;
     }
 
     public record InsumoReq(String sku, double qtyInProductUnit) {
@@ -42,23 +51,28 @@ public class ProductionService {
             return false;
         final int totalPzas = piezasPorLote * numeroLotes;
 
+        // Resuelve cada insumo una sola vez contra el índice de SKU
+        List<String> skus = new ArrayList<>();
+        for (InsumoReq in : insumos)
+            skus.add(in.sku());
+        Map<String, Product> porSku = inventory.findAllBySku(skus);
+
         // 1) validar stock en BASE
         for (InsumoReq in : insumos) {
-            Optional<Product> pOpt = inventory.findBySku(in.sku());
-            if (pOpt.isEmpty())
+            Product p = porSku.get(in.sku());
+            if (p == null)
                 return false;
-            Product p = pOpt.get();
             double reqBase = inventory.toBase(p, in.qtyInProductUnit() * totalPzas);
             double stockBase = inventory.toBase(p, p.getStock());
             if (stockBase + 1e-9 < reqBase)
                 return false;
         }
 
-        // 2) descontar insumos en unidad del producto
+        // 2) descontar insumos en unidad del producto (se aplican junto con el PF en el paso 4)
+        Map<String, Double> deltas = new LinkedHashMap<>();
         for (InsumoReq in : insumos) {
-            Product p = inventory.findBySku(in.sku()).get();
-            double delta = in.qtyInProductUnit() * totalPzas;
-            inventory.adjustStock(p.getSku(), -delta);
+            Product p = porSku.get(in.sku());
+            deltas.merge(p.getSku(), -in.qtyInProductUnit() * totalPzas, Double::sum);
         }
 
         // 3) PF con el formato del inventario: Unidad="Unidad", Contenido=1
@@ -93,13 +107,14 @@ public class ProductionService {
             inventory.upsert(pf);
         }
 
-        // 4) sumar stock del PF en su unidad del producto
-        inventory.adjustStock(pf.getSku(), totalPzas);
+        // 4) sumar stock del PF en su unidad del producto; insumos y PF en un solo guardado
+        deltas.merge(pf.getSku(), (double) totalPzas, Double::sum);
+        inventory.adjustStockBatch(deltas, "PRODUCTION");
 
         // 5) precio sugerido para UI
         double costoMatUnit = 0.0;
         for (InsumoReq in : insumos) {
-            Product p = inventory.findBySku(in.sku()).get();
+            Product p = porSku.get(in.sku());
             costoMatUnit += p.getPrecio() * in.qtyInProductUnit();
         }
         double costoUnitario = (costoMatUnit + costoExtraPorLote) / Math.max(1, piezasPorLote);
@@ -107,8 +122,6 @@ public class ProductionService {
             precioSugeridoOut[0] = round2(costoUnitario * 1.50);
         }
 
-        if (bus != null)
-            bus.publish(EventBus.Topic.INVENTORY_CHANGED, "PRODUCTION");
         return true;
     }
 
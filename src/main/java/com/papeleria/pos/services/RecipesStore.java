@@ -1,15 +1,32 @@
 package com.papeleria.pos.services;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
 
+/**
+ * Repositorio único de recetas: data/recipes.json.
+ *
+ * Se carga una vez (y de nuevo solo si el archivo cambia por fuera) en un
+ * índice por nombre sin distinguir mayúsculas, más un índice inverso
+ * SKU de insumo -> recetas que lo usan. Los items de cada receta quedan como
+ * JSON y se convierten a objetos solo cuando se pide esa receta.
+ *
+ * Las recetas sueltas de data/recetas/*.json (formato anterior de
+ * ProductionView) se incorporan en la primera carga y el archivo original se
+ * conserva como .migrated.
+ *
+ * Se escribe con StorageService (temporal, force y respaldo .bak). Si
+ * recipes.json no se puede leer o está dañado no se marca como cargado y
+ * upsert() falla en lugar de reescribirlo solo con la receta nueva.
+ */
 public class RecipesStore {
 
     public static class Item {
@@ -26,37 +43,311 @@ public class RecipesStore {
         public List<Item> items = new ArrayList<>();
     }
 
-    private final Path file = Path.of("data", "recipes.json");
+    /** Receta indexada: encabezado siempre en memoria, items perezosos. */
+    private static final class Entry {
+        Recipe header;
+        JsonArray rawItems; // null una vez convertidos
+        List<Item> items;
+    }
+
+    private final StorageService storage;
+    private final Path file;
+    private final Path legacyDir;
     private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
-    private final Type LIST = new TypeToken<List<Recipe>>() {
-    }.getType();
+
+    // clave: nombre en minúsculas; TreeMap para listar ya ordenado
+    private final Map<String, Entry> byName = new TreeMap<>();
+    // clave: SKU de insumo en minúsculas -> claves de recetas
+    private final Map<String, Set<String>> bySku = new HashMap<>();
+    private StorageService.FileStamp loadedStamp = null;
+    private boolean legacyChecked = false;
+
+    public RecipesStore() {
+        this(new StorageService(Path.of("")));
+    }
+
+    public RecipesStore(StorageService storage) {
+        this.storage = storage;
+        this.file = storage.getRecipesPath();
+        this.legacyDir = storage.getDataDir().resolve("recetas");
+    }
+
+    /* ======================= Consultas ======================= */
+
+    /** Nombres de todas las recetas, ordenados sin distinguir mayúsculas. */
+    public synchronized List<String> names() {
+        ensureLoaded();
+        List<String> out = new ArrayList<>(byName.size());
+        for (Entry e : byName.values())
+            out.add(e.header.nombre);
+        return out;
+    }
 
     public synchronized List<Recipe> list() {
+        ensureLoaded();
+        List<Recipe> out = new ArrayList<>(byName.size());
+        for (Entry e : byName.values())
+            out.add(materialize(e));
+        return out;
+    }
+
+    public synchronized Optional<Recipe> getByName(String nombre) {
+        if (nombre == null)
+            return Optional.empty();
+        ensureLoaded();
+        Entry e = byName.get(key(nombre));
+        return e == null ? Optional.empty() : Optional.of(materialize(e));
+    }
+
+    public synchronized boolean exists(String nombre) {
+        if (nombre == null || nombre.isBlank())
+            return false;
+        ensureLoaded();
+        return byName.containsKey(key(nombre));
+    }
+
+    /** Nombres de las recetas que usan el SKU como insumo. */
+    public synchronized List<String> recipesUsing(String sku) {
+        if (sku == null)
+            return List.of();
+        ensureLoaded();
+        Set<String> keys = bySku.get(key(sku));
+        if (keys == null)
+            return List.of();
+        List<String> out = new ArrayList<>(keys.size());
+        for (String k : keys)
+            out.add(byName.get(k).header.nombre);
+        out.sort(String.CASE_INSENSITIVE_ORDER);
+        return out;
+    }
+
+    /* ======================= Escritura ======================= */
+
+    /**
+     * Agrega o reemplaza la receta y reescribe recipes.json. Si no se puede
+     * leer o escribir, el índice vuelve a como estaba y se propaga el error.
+     */
+    public synchronized void upsert(Recipe r) throws IOException {
+        if (r == null || r.nombre == null || r.nombre.isBlank())
+            return;
+        loadOrFail();
+        String k = key(r.nombre);
+        Entry anterior = byName.get(k);
+        put(r.nombre, header(r), null, r.items == null ? new ArrayList<>() : copyItems(r.items));
         try {
-            if (!Files.exists(file))
-                return new ArrayList<>();
-            String json = Files.readString(file, StandardCharsets.UTF_8);
-            List<Recipe> rs = gson.fromJson(json, LIST);
-            return rs == null ? new ArrayList<>() : rs;
+            persist();
         } catch (IOException e) {
-            return new ArrayList<>();
+            unindex(k, byName.remove(k));
+            if (anterior != null)
+                put(anterior.header.nombre, anterior.header, anterior.rawItems, anterior.items);
+            throw e;
         }
     }
 
-    public synchronized Optional<Recipe> getByName(String nombre) {
-        return list().stream().filter(r -> r.nombre.equalsIgnoreCase(nombre)).findFirst();
+    /* ======================= Carga ======================= */
+
+    /** Para consultas: si la carga falla se ve un índice vacío y se reintenta en la siguiente. */
+    private void ensureLoaded() {
+        try {
+            loadOrFail();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void loadOrFail() throws IOException {
+        StorageService.FileStamp st = stamp();
+        if (!st.equals(loadedStamp)) {
+            loadedStamp = null;
+            load();
+            loadedStamp = st;
+        }
+        if (!legacyChecked) {
+            legacyChecked = true;
+            migrateLegacy();
+        }
+    }
+
+    /** Deja el índice vacío y lanza IOException si el archivo no se puede leer o no es una lista. */
+    private void load() throws IOException {
+        byName.clear();
+        bySku.clear();
+        if (Files.notExists(file))
+            return;
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonElement root = JsonParser.parseReader(r);
+            if (!root.isJsonArray())
+                throw new IOException("recipes.json no contiene una lista de recetas");
+            for (JsonElement el : root.getAsJsonArray())
+                if (el.isJsonObject())
+                    putRaw(el.getAsJsonObject());
+        } catch (IOException | RuntimeException e) {
+            byName.clear();
+            bySku.clear();
+            throw e instanceof IOException io ? io : new IOException("recipes.json dañado: " + e.getMessage(), e);
+        }
     }
 
-    public synchronized void upsert(Recipe r) {
+    /** Indexa una receta en JSON sin convertir sus items. */
+    private void putRaw(JsonObject o) {
+        JsonElement items = o.remove("items");
+        Recipe h = gson.fromJson(o, Recipe.class);
+        if (h == null || h.nombre == null || h.nombre.isBlank())
+            return;
+        h.items = null;
+        put(h.nombre, h, items != null && items.isJsonArray() ? items.getAsJsonArray() : new JsonArray(), null);
+    }
+
+    private void put(String nombre, Recipe header, JsonArray rawItems, List<Item> items) {
+        String k = key(nombre);
+        Entry old = byName.remove(k);
+        if (old != null)
+            unindex(k, old);
+        Entry e = new Entry();
+        e.header = header;
+        e.rawItems = rawItems;
+        e.items = items;
+        byName.put(k, e);
+        for (String sku : skusOf(e))
+            bySku.computeIfAbsent(key(sku), x -> new HashSet<>()).add(k);
+    }
+
+    private void unindex(String k, Entry e) {
+        for (String sku : skusOf(e)) {
+            Set<String> s = bySku.get(key(sku));
+            if (s != null && s.remove(k) && s.isEmpty())
+                bySku.remove(key(sku));
+        }
+    }
+
+    /** SKUs de insumos leídos directo del JSON si la receta aún no se convirtió. */
+    private static List<String> skusOf(Entry e) {
+        List<String> out = new ArrayList<>();
+        if (e.items != null) {
+            for (Item it : e.items)
+                if (it.sku != null)
+                    out.add(it.sku);
+        } else if (e.rawItems != null) {
+            for (JsonElement el : e.rawItems) {
+                if (!el.isJsonObject())
+                    continue;
+                JsonElement s = el.getAsJsonObject().get("sku");
+                if (s != null && s.isJsonPrimitive())
+                    out.add(s.getAsString());
+            }
+        }
+        return out;
+    }
+
+    private Recipe materialize(Entry e) {
+        if (e.items == null) {
+            e.items = new ArrayList<>();
+            for (JsonElement el : e.rawItems) {
+                Item it = gson.fromJson(el, Item.class);
+                if (it != null)
+                    e.items.add(it);
+            }
+            e.rawItems = null;
+        }
+        // Copia: quien la use puede modificarla sin tocar el índice
+        Recipe r = header(e.header);
+        r.items = copyItems(e.items);
+        return r;
+    }
+
+    /* ======================= Persistencia ======================= */
+
+    /** Reescribe recipes.json vía StorageService; los items no convertidos se copian tal cual. */
+    private void persist() throws IOException {
+        storage.writeRecipes(out -> {
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            JsonWriter jw = gson.newJsonWriter(w);
+            jw.beginArray();
+            for (Entry e : byName.values()) {
+                JsonObject o = gson.toJsonTree(e.header).getAsJsonObject();
+                o.add("items", e.items != null ? gson.toJsonTree(e.items) : e.rawItems);
+                gson.toJson(o, jw);
+            }
+            jw.endArray();
+            jw.flush(); // sin cerrar: StorageService hace force() sobre el mismo canal
+        });
+        loadedStamp = stamp();
+    }
+
+    /** Incorpora data/recetas/*.json que no estén ya en recipes.json. */
+    private void migrateLegacy() {
+        if (!Files.isDirectory(legacyDir))
+            return;
+        List<Path> migrados = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(legacyDir, "*.json")) {
+            for (Path p : ds) {
+                try {
+                    JsonElement el = JsonParser.parseString(Files.readString(p, StandardCharsets.UTF_8));
+                    JsonObject o;
+                    if (el.isJsonArray()) {
+                        // formato más viejo: solo la lista de items; el nombre es el del archivo
+                        o = new JsonObject();
+                        o.addProperty("nombre", p.getFileName().toString().replace(".json", ""));
+                        o.addProperty("sku", "");
+                        o.addProperty("margen", 50.0);
+                        o.add("items", el);
+                    } else if (el.isJsonObject()) {
+                        o = el.getAsJsonObject();
+                    } else {
+                        continue;
+                    }
+                    JsonElement n = o.get("nombre");
+                    if (n != null && n.isJsonPrimitive() && !byName.containsKey(key(n.getAsString())))
+                        putRaw(o);
+                    migrados.add(p);
+                } catch (IOException | RuntimeException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            return;
+        }
+        if (migrados.isEmpty())
+            return;
         try {
-            Files.createDirectories(file.getParent());
-            List<Recipe> all = list();
-            all.removeIf(x -> x.nombre.equalsIgnoreCase(r.nombre));
-            all.add(r);
-            all.sort(Comparator.comparing(a -> a.nombre.toLowerCase(Locale.ROOT)));
-            Files.writeString(file, gson.toJson(all, LIST), StandardCharsets.UTF_8,
-                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            persist();
+            for (Path p : migrados)
+                Files.move(p, p.resolveSibling(p.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
         } catch (IOException ignored) {
         }
     }
+
+    /* ======================= Helpers ======================= */
+
+    private StorageService.FileStamp stamp() {
+        try {
+            return new StorageService.FileStamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        } catch (IOException e) {
+            return new StorageService.FileStamp(0L, -1L);
+        }
+    }
+
+    private static String key(String s) {
+        return s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static Recipe header(Recipe r) {
+        Recipe h = new Recipe();
+        h.nombre = r.nombre;
+        h.sku = r.sku;
+        h.margen = r.margen;
+        h.precioDirecto = r.precioDirecto;
+        h.manoObraUnit = r.manoObraUnit;
+        h.items = null;
+        return h;
+    }
+
+    private static List<Item> copyItems(List<Item> items) {
+        List<Item> out = new ArrayList<>(items.size());
+        for (Item it : items) {
+            Item c = new Item();
+            c.sku = it.sku;
+            c.cantidadBase = it.cantidadBase;
+            out.add(c);
+        }
+        return out;
+    }
 }
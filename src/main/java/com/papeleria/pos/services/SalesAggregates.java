@@ -0,0 +1,399 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Product;
+import com.papeleria.pos.models.Sale;
+import com.papeleria.pos.models.SaleItem;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Totales de ventas mantenidos de forma incremental: se suscribe a
+ * SALES_CHANGED y suma o resta (SalesService.SalesChanged) cada venta en los
+ * acumulados por día, hora del día, SKU y categoría. Las lecturas son O(1).
+ * La huella que se guarda con la caché es la que trae cada evento, no la
+ * del disco al momento de aplicarlo: así nunca cubre ventas aún sin contar.
+ *
+ * El estado se guarda en data/cache/sales-aggregates.json junto con la huella
+ * del historial; si al arrancar la huella no coincide (ventas editadas por
+ * fuera, compactación, caché ausente) se reconstruye con una pasada en
+ * streaming sobre las ventas.
+ */
+public class SalesAggregates {
+
+    private static final String CACHE = "sales-aggregates";
+    private static final int VERSION = 2;
+    /** Espera antes de guardar la caché tras un cambio (agrupa ráfagas de ventas). */
+    private static final long SAVE_DELAY_MS = 2000;
+
+    private final StorageService storage;
+    private final InventoryService inventory;
+    private final EventBus bus;
+
+    private double total;
+    private int transacciones;
+    private final TreeMap<LocalDate, Acumulado> porDia = new TreeMap<>();
+    private final double[] totalPorHora = new double[24];
+    private final int[] transaccionesPorHora = new int[24];
+    private final Map<String, PorSku> porSku = new HashMap<>();
+    private final Map<String, Double> porCategoria = new HashMap<>();
+    private String stamp;
+
+    private final ScheduledExecutorService saver = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "pos-aggregates");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledFuture<?> pendingSave;
+
+    /** Total y número de ventas de un día, con lo vendido por SKU ese día. */
+    public static class Acumulado {
+        double total;
+        int transacciones;
+        Map<String, PorSku> skus = new HashMap<>();
+
+        public double getTotal() { return total; }
+        public int getTransacciones() { return transacciones; }
+
+        Acumulado copy() {
+            Acumulado c = new Acumulado();
+            c.total = total;
+            c.transacciones = transacciones;
+            skus.forEach((k, v) -> c.skus.put(k, v.copy()));
+            return c;
+        }
+    }
+
+    /** Unidades (en unidad base) e importe vendidos de un SKU. */
+    public static class PorSku {
+        String nombre;
+        double unidades;
+        double importe;
+
+        public String getNombre() { return nombre; }
+        public double getUnidades() { return unidades; }
+        public double getImporte() { return importe; }
+
+        PorSku copy() {
+            PorSku c = new PorSku();
+            c.nombre = nombre;
+            c.unidades = unidades;
+            c.importe = importe;
+            return c;
+        }
+    }
+
+    /** Forma en disco de la caché (claves de fecha en ISO). */
+    private static class Snapshot {
+        int version;
+        String stamp;
+        double total;
+        int transacciones;
+        Map<String, Acumulado> porDia;
+        double[] totalPorHora;
+        int[] transaccionesPorHora;
+        Map<String, PorSku> porSku;
+        Map<String, Double> porCategoria;
+    }
+
+    public SalesAggregates(StorageService storage, InventoryService inventory, EventBus bus) {
+        this.storage = storage;
+        this.inventory = inventory;
+        this.bus = bus;
+        if (!loadSnapshot())
+            rebuild();
+        bus.subscribeEach(EventBus.Topic.SALES_CHANGED, this::onSalesChanged);
+        bus.subscribeEach(EventBus.Topic.FILES_CHANGED, this::onFilesChanged);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "pos-aggregates-flush"));
+    }
+
+    /* ======================= Consultas O(1) ======================= */
+
+    public synchronized double total() {
+        return total;
+    }
+
+    public synchronized int transacciones() {
+        return transacciones;
+    }
+
+    public synchronized double ticketPromedio() {
+        return transacciones == 0 ? 0.0 : total / transacciones;
+    }
+
+    public synchronized double totalDelDia(LocalDate dia) {
+        Acumulado a = porDia.get(dia);
+        return a == null ? 0.0 : a.total;
+    }
+
+    public synchronized double totalPorHora(int hora) {
+        return totalPorHora[hora];
+    }
+
+    public synchronized double totalPorCategoria(String categoria) {
+        return porCategoria.getOrDefault(categoria, 0.0);
+    }
+
+    /* ======================= Series por período ======================= */
+
+    public enum Granularidad { DIA, SEMANA, MES }
+
+    /**
+     * Total por período entre dos fechas (inclusive). Solo recorre los días del
+     * rango (subMap del índice por fecha), así el costo no depende de cuánto
+     * historial haya fuera de él. Los períodos sin ventas aparecen con 0; la
+     * clave es el primer día de cada período (semanas inician en lunes).
+     */
+    public synchronized LinkedHashMap<LocalDate, Double> serie(LocalDate desde, LocalDate hasta, Granularidad g) {
+        LinkedHashMap<LocalDate, Double> out = new LinkedHashMap<>();
+        if (desde.isAfter(hasta))
+            return out;
+        for (LocalDate p = inicioDe(desde, g); !p.isAfter(hasta); p = siguiente(p, g))
+            out.put(p, 0.0);
+        for (Map.Entry<LocalDate, Acumulado> e : porDia.subMap(desde, true, hasta, true).entrySet())
+            out.merge(inicioDe(e.getKey(), g), e.getValue().total, Double::sum);
+        return out;
+    }
+
+    /** Total y transacciones del rango (inclusive). */
+    public synchronized Acumulado resumen(LocalDate desde, LocalDate hasta) {
+        Acumulado r = new Acumulado();
+        if (desde.isAfter(hasta))
+            return r;
+        for (Acumulado a : porDia.subMap(desde, true, hasta, true).values()) {
+            r.total += a.total;
+            r.transacciones += a.transacciones;
+        }
+        return r;
+    }
+
+    /* ======================= Top de productos ======================= */
+
+    public enum Orden { UNIDADES, IMPORTE }
+
+    /** Renglón del top: SKU con lo vendido en el rango. */
+    public record TopItem(String sku, String nombre, double unidades, double importe) {}
+
+    /**
+     * Los n SKUs más vendidos del rango (inclusive). Suma los acumulados por
+     * día y SKU del rango y selecciona con un min-heap de tamaño n, sin ordenar
+     * todos los SKUs: O(S log n). Puede tardar con rangos largos; llamarlo
+     * fuera del hilo de JavaFX.
+     */
+    public List<TopItem> topProductos(LocalDate desde, LocalDate hasta, int n, Orden orden) {
+        if (n <= 0 || desde.isAfter(hasta))
+            return List.of();
+        Map<String, PorSku> suma = new HashMap<>();
+        synchronized (this) {
+            for (Acumulado dia : porDia.subMap(desde, true, hasta, true).values()) {
+                dia.skus.forEach((sku, v) -> {
+                    PorSku t = suma.computeIfAbsent(sku, k -> new PorSku());
+                    if (v.nombre != null)
+                        t.nombre = v.nombre;
+                    t.unidades += v.unidades;
+                    t.importe += v.importe;
+                });
+            }
+        }
+        Comparator<Map.Entry<String, PorSku>> cmp = Comparator.comparingDouble(
+                e -> orden == Orden.UNIDADES ? e.getValue().unidades : e.getValue().importe);
+        PriorityQueue<Map.Entry<String, PorSku>> heap = new PriorityQueue<>(n + 1, cmp);
+        for (Map.Entry<String, PorSku> e : suma.entrySet()) {
+            PorSku v = e.getValue();
+            if (v.unidades <= 1e-9 && v.importe <= 1e-9)
+                continue; // canceladas por completo
+            if (heap.size() < n) {
+                heap.add(e);
+            } else if (cmp.compare(e, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(e);
+            }
+        }
+        List<TopItem> out = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            Map.Entry<String, PorSku> e = heap.poll();
+            PorSku v = e.getValue();
+            out.add(new TopItem(e.getKey(), v.nombre == null ? e.getKey() : v.nombre, v.unidades, v.importe));
+        }
+        Collections.reverse(out);
+        return out;
+    }
+
+    private static LocalDate inicioDe(LocalDate d, Granularidad g) {
+        return switch (g) {
+            case DIA -> d;
+            case SEMANA -> d.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MES -> d.withDayOfMonth(1);
+        };
+    }
+
+    private static LocalDate siguiente(LocalDate d, Granularidad g) {
+        return switch (g) {
+            case DIA -> d.plusDays(1);
+            case SEMANA -> d.plusWeeks(1);
+            case MES -> d.plusMonths(1);
+        };
+    }
+
+    /* ======================= Actualización ======================= */
+
+    private void onSalesChanged(Object payload) {
+        if (!(payload instanceof SalesService.SalesChanged c))
+            return;
+        for (Sale s : c.ventas())
+            apply(s, +1, this::categoriaActual);
+        for (Sale s : c.canceladas())
+            apply(s, -1, this::categoriaActual);
+        synchronized (this) {
+            // Huella tomada justo tras anexar este grupo (null: la caché no se reutilizará).
+            // Un flush antes de esta línea guarda la anterior: a lo más provoca una reconstrucción
+            stamp = c.salesStamp();
+        }
+        scheduleSave();
+    }
+
+    /** Solo para partidas sin categoría guardada (ventas anteriores a guardarla). */
+    private String categoriaActual(String sku) {
+        return inventory.findBySku(sku).map(x -> x.getCategoria()).orElse("");
+    }
+
+    private synchronized void apply(Sale s, int signo, Function<String, String> categoriaDe) {
+        double t = s.getTotal() * signo;
+        total += t;
+        transacciones += signo;
+        if (s.getFecha() != null) {
+            Acumulado d = porDia.computeIfAbsent(s.getFecha().toLocalDate(), k -> new Acumulado());
+            d.total += t;
+            d.transacciones += signo;
+            if (d.transacciones <= 0 && Math.abs(d.total) < 1e-9)
+                porDia.remove(s.getFecha().toLocalDate());
+            for (SaleItem it : s.getItems()) {
+                if (it.getSku() == null)
+                    continue;
+                PorSku p = d.skus.computeIfAbsent(skuKey(it.getSku()), k -> new PorSku());
+                if (it.getNombre() != null)
+                    p.nombre = it.getNombre();
+                p.unidades += it.getCantidadBase() * signo;
+                p.importe += it.getSubtotal() * signo;
+            }
+            int h = s.getFecha().getHour();
+            totalPorHora[h] += t;
+            transaccionesPorHora[h] += signo;
+        }
+        for (SaleItem it : s.getItems()) {
+            if (it.getSku() == null)
+                continue;
+            PorSku p = porSku.computeIfAbsent(skuKey(it.getSku()), k -> new PorSku());
+            if (it.getNombre() != null)
+                p.nombre = it.getNombre();
+            p.unidades += it.getCantidadBase() * signo;
+            p.importe += it.getSubtotal() * signo;
+            // La de la venta, no la actual: así una cancelación resta de la misma categoría que sumó
+            String cat = it.getCategoria() != null ? it.getCategoria() : categoriaDe.apply(it.getSku());
+            porCategoria.merge(cat == null ? "" : cat, it.getSubtotal() * signo, Double::sum);
+        }
+    }
+
+    private static String skuKey(String sku) {
+        return sku.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /** Historial de ventas modificado por fuera: se recalcula y se avisa a las vistas. */
+    private void onFilesChanged(Object payload) {
+        if (!(payload instanceof FileChangeService.Change c) || c.kind() != FileChangeService.Kind.SALES)
+            return;
+        rebuild();
+        bus.publish(EventBus.Topic.SALES_CHANGED, "external");
+    }
+
+    /** Recalcula todo con una pasada en streaming sobre el historial. */
+    public void rebuild() {
+        synchronized (this) {
+            total = 0;
+            transacciones = 0;
+            porDia.clear();
+            Arrays.fill(totalPorHora, 0);
+            Arrays.fill(transaccionesPorHora, 0);
+            porSku.clear();
+            porCategoria.clear();
+            stamp = storage.salesStamp();
+        }
+        // Categorías tomadas una vez antes del recorrido, no una consulta al inventario por partida
+        Map<String, String> categorias = new HashMap<>();
+        for (Product p : inventory.list())
+            if (p.getSku() != null)
+                categorias.put(skuKey(p.getSku()), p.getCategoria());
+        storage.forEachSale(s -> apply(s, +1, sku -> categorias.getOrDefault(skuKey(sku), "")));
+        flush();
+    }
+
+    /* ======================= Persistencia ======================= */
+
+    private synchronized void scheduleSave() {
+        if (pendingSave != null && !pendingSave.isDone())
+            return;
+        pendingSave = saver.schedule(this::flush, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /** Guarda la caché ahora (también se llama al cerrar la aplicación). */
+    public void flush() {
+        Snapshot snap = new Snapshot();
+        synchronized (this) {
+            snap.version = VERSION;
+            snap.stamp = stamp;
+            snap.total = total;
+            snap.transacciones = transacciones;
+            snap.porDia = new LinkedHashMap<>();
+            porDia.forEach((d, a) -> snap.porDia.put(d.toString(), a.copy()));
+            snap.totalPorHora = totalPorHora.clone();
+            snap.transaccionesPorHora = transaccionesPorHora.clone();
+            snap.porSku = new HashMap<>();
+            porSku.forEach((k, v) -> snap.porSku.put(k, v.copy()));
+            snap.porCategoria = new HashMap<>(porCategoria);
+        }
+        try {
+            storage.saveCache(CACHE, snap);
+        } catch (RuntimeException ignored) {
+            // Solo es una caché: si no se puede escribir, el siguiente arranque la reconstruye
+        }
+    }
+
+    private synchronized boolean loadSnapshot() {
+        Snapshot snap = storage.loadCache(CACHE, Snapshot.class);
+        if (snap == null || snap.version != VERSION || snap.stamp == null
+                || !snap.stamp.equals(storage.salesStamp()))
+            return false;
+        if (snap.totalPorHora == null || snap.totalPorHora.length != 24
+                || snap.transaccionesPorHora == null || snap.transaccionesPorHora.length != 24)
+            return false;
+        total = snap.total;
+        transacciones = snap.transacciones;
+        try {
+            if (snap.porDia != null)
+                snap.porDia.forEach((d, a) -> {
+                    if (a.skus == null)
+                        a.skus = new HashMap<>();
+                    porDia.put(LocalDate.parse(d), a);
+                });
+        } catch (DateTimeParseException e) {
+            porDia.clear();
+            return false;
+        }
+        System.arraycopy(snap.totalPorHora, 0, totalPorHora, 0, 24);
+        System.arraycopy(snap.transaccionesPorHora, 0, transaccionesPorHora, 0, 24);
+        if (snap.porSku != null)
+            porSku.putAll(snap.porSku);
+        if (snap.porCategoria != null)
+            porCategoria.putAll(snap.porCategoria);
+        stamp = snap.stamp;
+        return true;
+    }
+}
@@ -0,0 +1,375 @@
+package com.papeleria.pos.services;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.papeleria.pos.models.Sale;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Diario de ventas de solo-anexar: una línea JSON compacta por venta o
+ * cancelación (tombstone). Cada cierto número de registros el diario se
+ * compacta en un segmento inmutable; la lectura reproduce segmentos + diario
+ * encima de la base (sales.json o sales.bin).
+ *
+ * Configuración (propiedades del sistema):
+ * - pos.sales.fsync = ALWAYS | BATCH | NEVER (por defecto ALWAYS)
+ * - pos.sales.fsyncEvery = registros entre fsync en modo BATCH (16)
+ * - pos.sales.segmentRecords = registros del diario antes de pasar a segmento (500)
+ */
+public class SalesJournal {
+
+    public enum Fsync { ALWAYS, BATCH, NEVER }
+
+    private static final String OP_SALE = "SALE";
+    private static final String OP_CANCEL = "CANCEL";
+
+    private final Path dir;
+    private final Path journalPath;
+    private final Gson gson;
+    private final Fsync fsync;
+    private final int fsyncEvery;
+    private final int segmentRecords;
+
+    private FileChannel channel;
+    private int journalRecords = 0;
+    private int segmentCount = 0;
+    private int unsynced = 0;
+
+    /** Registro tal como se guarda en cada línea. */
+    private static class Record {
+        String op;
+        Sale sale;
+        String id;
+    }
+
+    public SalesJournal(Path dir, Gson compactGson) {
+        this.dir = dir;
+        this.journalPath = dir.resolve("sales.journal");
+        this.gson = compactGson;
+        this.fsync = parseFsync(System.getProperty("pos.sales.fsync", "ALWAYS"));
+        this.fsyncEvery = Math.max(1, Integer.getInteger("pos.sales.fsyncEvery", 16));
+        this.segmentRecords = Math.max(1, Integer.getInteger("pos.sales.segmentRecords", 500));
+        try {
+            Files.createDirectories(dir);
+            repairTail();
+            journalRecords = readRecords(journalPath).size();
+            segmentCount = segments().size();
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo abrir el diario de ventas: " + journalPath, e);
+        }
+    }
+
+    /* ======================= Escritura ======================= */
+
+    public synchronized void appendSale(Sale sale) {
+        Record r = new Record();
+        r.op = OP_SALE;
+        r.sale = sale;
+        append(r);
+    }
+
+    /** Varias ventas con una sola escritura y, si corresponde, un solo fsync. */
+    public synchronized void appendSales(List<Sale> sales) {
+        List<Record> rs = new ArrayList<>(sales.size());
+        for (Sale sale : sales) {
+            Record r = new Record();
+            r.op = OP_SALE;
+            r.sale = sale;
+            rs.add(r);
+        }
+        append(rs);
+    }
+
+    public synchronized void appendCancel(String saleId) {
+        Record r = new Record();
+        r.op = OP_CANCEL;
+        r.id = saleId;
+        append(r);
+    }
+
+    private void append(Record r) {
+        append(List.of(r));
+    }
+
+    private void append(List<Record> rs) {
+        if (rs.isEmpty())
+            return;
+        StringBuilder sb = new StringBuilder();
+        for (Record r : rs)
+            sb.append(gson.toJson(r)).append('\n');
+        byte[] line = sb.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            FileChannel ch = channel();
+            ByteBuffer buf = ByteBuffer.wrap(line);
+            while (buf.hasRemaining())
+                ch.write(buf);
+            unsynced += rs.size();
+            if (fsync == Fsync.ALWAYS || (fsync == Fsync.BATCH && unsynced >= fsyncEvery)) {
+                ch.force(false);
+                unsynced = 0;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo escribir en el diario de ventas", e);
+        }
+        journalRecords += rs.size();
+        if (journalRecords >= segmentRecords)
+            rollSegment();
+    }
+
+    /** Fuerza a disco lo pendiente (modo BATCH/NEVER). */
+    public synchronized void flush() {
+        try {
+            if (channel != null && unsynced > 0)
+                channel.force(false);
+            unsynced = 0;
+        } catch (IOException ignored) {
+        }
+    }
+
+    /* ======================= Lectura ======================= */
+
+    /**
+     * Aplica segmentos y diario, en orden, sobre las ventas base (clave = id).
+     * Es idempotente: repetir un registro deja el mismo resultado.
+     */
+    public synchronized void replay(Map<String, Sale> byId) {
+        try {
+            for (Path seg : segments())
+                apply(readRecords(seg), byId);
+            apply(readRecords(journalPath), byId);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void apply(List<Record> records, Map<String, Sale> byId) {
+        for (Record r : records) {
+            if (OP_SALE.equals(r.op) && r.sale != null && r.sale.getId() != null)
+                byId.put(r.sale.getId(), r.sale);
+            else if (OP_CANCEL.equals(r.op) && r.id != null)
+                byId.remove(r.id);
+        }
+    }
+
+    /**
+     * Foto del diario para un recorrido en streaming: qué ids decide el diario
+     * (reemplazadas o canceladas) y el registro vigente de cada una. Es una
+     * copia en memoria, así que se recorre sin el bloqueo del diario; ocupa
+     * memoria proporcional a segmentos + diario, no al historial completo.
+     */
+    public static final class Overlay {
+        // id -> último SALE vigente, o null si terminó cancelada (en orden del último registro)
+        private final Map<String, Sale> vigente;
+
+        private Overlay(Map<String, Sale> vigente) {
+            this.vigente = vigente;
+        }
+
+        /** true si la venta base con este id debe ignorarse (el diario la decide). */
+        public boolean decides(String id) {
+            return id != null && vigente.containsKey(id);
+        }
+
+        /** Entrega las ventas del diario que siguen vigentes, una por id. */
+        public void forEachLive(Consumer<Sale> visitor) {
+            for (Sale s : vigente.values())
+                if (s != null)
+                    visitor.accept(s);
+        }
+    }
+
+    /** Una pasada por segmentos y diario bajo el bloqueo; el resultado ya no depende de él. */
+    public synchronized Overlay overlay() {
+        Map<String, Sale> vigente = new LinkedHashMap<>();
+        try {
+            scanAll(r -> {
+                // remove + put: el orden queda el del último registro de cada id
+                if (OP_SALE.equals(r.op) && r.sale != null && r.sale.getId() != null) {
+                    vigente.remove(r.sale.getId());
+                    vigente.put(r.sale.getId(), r.sale);
+                } else if (OP_CANCEL.equals(r.op) && r.id != null) {
+                    vigente.remove(r.id);
+                    vigente.put(r.id, null);
+                }
+            });
+        } catch (IOException ignored) {
+        }
+        return new Overlay(vigente);
+    }
+
+    /** Huella de segmentos + diario; cambia con cada anexo o compactación. */
+    public synchronized String stamp() {
+        long segBytes = 0;
+        try {
+            for (Path seg : segments())
+                segBytes += Files.size(seg);
+            long journalBytes = Files.exists(journalPath) ? Files.size(journalPath) : 0;
+            return segmentCount + ":" + segBytes + ":" + journalBytes;
+        } catch (IOException e) {
+            return "?";
+        }
+    }
+
+    public synchronized int segmentCount() {
+        return segmentCount;
+    }
+
+    /* ======================= Compactación ======================= */
+
+    /**
+     * Pasa el diario a un segmento nuevo. Las ventas canceladas dentro del mismo
+     * diario desaparecen junto con su tombstone; los tombstones de ventas más
+     * viejas se conservan. Si se cae entre escribir el segmento y vaciar el diario,
+     * la reproducción repetida es inocua.
+     */
+    private void rollSegment() {
+        try {
+            List<Record> records = readRecords(journalPath);
+            Set<String> vendidas = new HashSet<>();
+            Set<String> canceladas = new HashSet<>();
+            for (Record r : records) {
+                if (OP_SALE.equals(r.op) && r.sale != null)
+                    vendidas.add(r.sale.getId());
+                else if (OP_CANCEL.equals(r.op))
+                    canceladas.add(r.id);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Record r : records) {
+                if (OP_SALE.equals(r.op) && r.sale != null && canceladas.contains(r.sale.getId()))
+                    continue;
+                if (OP_CANCEL.equals(r.op) && vendidas.contains(r.id))
+                    continue;
+                sb.append(gson.toJson(r)).append('\n');
+            }
+
+            List<Path> segs = segments();
+            int next = segs.isEmpty() ? 1 : segmentNumber(segs.get(segs.size() - 1)) + 1;
+            Path seg = dir.resolve(String.format(Locale.ROOT, "sales-%06d.seg", next));
+            Path tmp = dir.resolve(seg.getFileName() + ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining())
+                    ch.write(buf);
+                ch.force(true);
+            }
+            Files.move(tmp, seg, StandardCopyOption.ATOMIC_MOVE);
+            segmentCount++;
+            truncateJournal();
+        } catch (IOException e) {
+            // Se reintenta en el siguiente registro; el diario sigue siendo válido
+        }
+    }
+
+    /** Descarta segmentos y diario; se usa cuando la base ya contiene todo. */
+    public synchronized void reset() {
+        try {
+            for (Path seg : segments())
+                Files.deleteIfExists(seg);
+            segmentCount = 0;
+            truncateJournal();
+        } catch (IOException e) {
+            throw new RuntimeException("No se pudo reiniciar el diario de ventas", e);
+        }
+    }
+
+    private void truncateJournal() throws IOException {
+        FileChannel ch = channel();
+        ch.truncate(0);
+        ch.force(true);
+        journalRecords = 0;
+        unsynced = 0;
+    }
+
+    /* ======================= Helpers internos ======================= */
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+
+    /** Si una caída dejó media línea al final, la recorta para no corromper el siguiente anexo. */
+    private void repairTail() throws IOException {
+        if (Files.notExists(journalPath))
+            return;
+        try (FileChannel ch = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            long pos = size;
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (pos > 0) {
+                one.clear();
+                ch.read(one, pos - 1);
+                if (one.get(0) == '\n')
+                    break;
+                pos--;
+            }
+            if (pos < size)
+                ch.truncate(pos);
+        }
+    }
+
+    private List<Record> readRecords(Path file) throws IOException {
+        List<Record> out = new ArrayList<>();
+        scan(file, out::add);
+        return out;
+    }
+
+    /** Segmentos y diario en orden de escritura. */
+    private void scanAll(Consumer<Record> visitor) throws IOException {
+        for (Path seg : segments())
+            scan(seg, visitor);
+        scan(journalPath, visitor);
+    }
+
+    /** Lee línea por línea; solo un registro vive en memoria a la vez. */
+    private void scan(Path file, Consumer<Record> visitor) throws IOException {
+        if (Files.notExists(file))
+            return;
+        try (BufferedReader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                try {
+                    Record rec = gson.fromJson(line, Record.class);
+                    if (rec != null)
+                        visitor.accept(rec);
+                } catch (JsonParseException ignored) {
+                    // línea dañada: se omite
+                }
+            }
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> out = new ArrayList<>();
+        try (var s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().matches("sales-\\d{6}\\.seg")).forEach(out::add);
+        }
+        out.sort(Comparator.comparingInt(SalesJournal::segmentNumber));
+        return out;
+    }
+
+    private static int segmentNumber(Path seg) {
+        String n = seg.getFileName().toString();
+        return Integer.parseInt(n.substring(6, 12));
+    }
+
+    private static Fsync parseFsync(String s) {
+        try {
+            return Fsync.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (Exception e) {
+            return Fsync.ALWAYS;
+        }
+    }
+}
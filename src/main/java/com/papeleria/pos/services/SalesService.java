@@ -20,11 +20,27 @@ public class SalesService {
     private final InventoryService inventory;
     private final StorageService storage;
     private final EventBus bus;
+    private final CheckoutService checkout;
+    private final TicketWriter tickets;
+
+    /**
+     * Payload de SALES_CHANGED por cada grupo confirmado: ventas nuevas, ventas
+     * canceladas (completas, para descontarlas) y la huella del historial
+     * después de anexarlas (null si incluye cambios de otra caja).
+     */
+    public record SalesChanged(List<Sale> ventas, List<Sale> canceladas, String salesStamp) {}
 
     public SalesService(StorageService storage, InventoryService inventory, EventBus bus) {
         this.inventory = inventory;
         this.storage = storage;
         this.bus = bus;
+        this.tickets = new TicketWriter(TicketStore.fromConfig(storage.getTicketsDir()));
+        this.checkout = new CheckoutService(storage, inventory, bus);
+        // Ventas completadas desde el WAL tras una caída: les falta el ticket
+        for (Sale s : checkout.recovered())
+            generarTicketTxt(s);
+        for (String id : checkout.recoveredCancels())
+            tickets.delete(id);
     }
 
     public SalesService(InventoryService inventory, StorageService storage, EventBus bus) {
@@ -54,6 +70,15 @@ public class SalesService {
 
     /** Cobra, descuenta stock, guarda venta, genera ticket, publica eventos. */
     public void cobrarYGuardar(Sale sale) {
+        cobrar(sale);
+    }
+
+    /** Igual que cobrarYGuardar pero devuelve el texto del ticket (renderizado una sola vez). */
+    public String cobrarYGuardarReturnTicket(Sale sale) {
+        return cobrar(sale);
+    }
+
+    private String cobrar(Sale sale) {
         // 1) Total crudo desde items
         double raw = 0.0;
         for (SaleItem it : sale.getItems())
@@ -66,63 +91,28 @@ public class SalesService {
         sale.setFecha(java.time.LocalDateTime.now());
         sale.setTotal(totalRounded);
 
-        // 4) Descontar stock (en unidad del producto)
+        // 4-5) Descontar stock y guardar la venta como una sola transacción (WAL + grupo);
+        // la categoría se guarda en cada partida para que cancelar reste de la misma
+        java.util.Map<String, Double> deltas = new java.util.LinkedHashMap<>();
         for (SaleItem it : sale.getItems()) {
-            inventory.findBySku(it.getSku()).ifPresent(p -> {
-                inventory.adjustStock(p.getSku(), -it.getCantidadBase());
-            });
+            deltas.merge(it.getSku(), -it.getCantidadBase(), Double::sum);
+            if (it.getCategoria() == null)
+                inventory.findBySku(it.getSku()).ifPresent(p -> it.setCategoria(p.getCategoria()));
         }
+        checkout.commit(sale, deltas);
 
-        // 5) Guardar venta
-        java.util.List<Sale> all = new java.util.ArrayList<>(storage.loadSales());
-        all.add(sale);
-        storage.saveSales(all);
-        bus.publish(EventBus.Topic.SALES_CHANGED, sale);
-
-        // 6) Ticket (con cambio redondeado a $0.50)
-        generarTicketTxt(sale);
+        // 6) Ticket (con cambio redondeado a $0.50); el archivo se escribe en segundo plano
+        String ticket = generarTicketTxt(sale);
 
-        // 7) Eventos
-        if (bus != null) {
-            bus.publish(EventBus.Topic.SALES_CHANGED, "SALE");
-            bus.publish(EventBus.Topic.INVENTORY_CHANGED, "SALE");
-        }
+        // 7) Eventos: INVENTORY_CHANGED y SALES_CHANGED ya los publicó el cobro al confirmarse
+        return ticket;
     }
 
     private String generarTicketTxt(Sale s) {
-        StringBuilder sb = new StringBuilder();
-        try {
-            java.nio.file.Path dir = storage.getTicketsDir();
-            java.time.format.DateTimeFormatter f = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
-            sb.append("Ticket: ").append(s.getId()).append("\n")
-                    .append("Fecha: ").append(s.getFecha() == null ? "" : s.getFecha().format(f)).append("\n")
-                    .append("----------------------------------------\n");
-
-            for (SaleItem it : s.getItems()) {
-                sb.append(String.format("%-22s %6.3f x %6.2f = %7.2f\n",
-                        it.getNombre(), it.getCantidadBase(), it.getPrecioUnitario(), it.getSubtotal()));
-            }
-            sb.append("----------------------------------------\n");
-
-            double total = s.getTotal();
-            double cambioRed = roundMex(Math.max(0, s.getEfectivo() - total));
-
-            sb.append(String.format("TOTAL:    %,.2f\n", total))
-                    .append(String.format("EFECTIVO: %,.2f\n", s.getEfectivo()))
-                    .append(String.format("CAMBIO:   %,.2f\n", cambioRed));
-
-            // Guarda el archivo
-            java.nio.file.Path out = dir.resolve("ticket-" + s.getId() + ".txt");
-            java.nio.file.Files.writeString(out, sb.toString(),
-                    java.nio.charset.StandardCharsets.UTF_8,
-                    java.nio.file.StandardOpenOption.CREATE,
-                    java.nio.file.StandardOpenOption.TRUNCATE_EXISTING);
-
-        } catch (Exception ignored) {
-        }
-
-        return sb.toString(); // 🔹 devolvemos el texto
+        double cambioRed = roundMex(Math.max(0, s.getEfectivo() - s.getTotal()));
+        String text = tickets.render(s, cambioRed);
+        tickets.submit(s.getId(), text);
+        return text; // 🔹 devolvemos el texto
     }
 
     // Cancela una venta y repone inventario. Requiere credenciales de ADMIN.
@@ -133,43 +123,22 @@ public class SalesService {
             return false;
         }
 
-        java.util.List<com.papeleria.pos.models.Sale> ventas = new java.util.ArrayList<>(storage.loadSales());
-        java.util.Optional<com.papeleria.pos.models.Sale> venta = ventas.stream()
-                .filter(s -> s.getId() != null && s.getId().equals(saleId))
-                .findFirst();
+        java.util.Optional<com.papeleria.pos.models.Sale> venta = storage.findSale(saleId);
         if (venta.isEmpty())
             return false;
 
-        // Reponer inventario
-        for (com.papeleria.pos.models.SaleItem it : venta.get().getItems()) {
-            inventory.adjustStock(it.getSku(), it.getCantidadBase());
-        }
-
-        // Eliminar venta y guardar
-        ventas.remove(venta.get());
-        storage.saveSales(ventas);
+        // Reponer inventario y tombstone en el diario como una sola transacción (WAL)
+        java.util.Map<String, Double> deltas = new java.util.LinkedHashMap<>();
+        for (com.papeleria.pos.models.SaleItem it : venta.get().getItems())
+            deltas.merge(it.getSku(), it.getCantidadBase(), Double::sum);
+        checkout.cancel(venta.get(), deltas);
 
-        // Borrar ticket si existe
-        try {
-            java.nio.file.Path t = storage.getTicketsDir().resolve("ticket-" + saleId + ".txt");
-            java.nio.file.Files.deleteIfExists(t);
-        } catch (Exception ignored) {
-        }
+        // Borrar ticket si existe (en orden con las escrituras pendientes)
+        tickets.delete(saleId);
 
-        // Notificar
-        if (bus != null) {
-            bus.publish(EventBus.Topic.SALES_CHANGED, "CANCEL");
-            bus.publish(EventBus.Topic.INVENTORY_CHANGED, "CANCEL");
-        }
         return true;
     }
 
-    public String cobrarYGuardarReturnTicket(Sale sale) {
-
-        cobrarYGuardar(sale);
-        return generarTicketTxt(sale);
-    }
-
     // === Utilidades para historial en UI ===
 
     // Lista de ventas actuales (copia mutable para UI)
@@ -179,14 +148,7 @@ public class SalesService {
 
     // Lee el ticket .txt de una venta para previsualizar en UI
     public String readTicket(String saleId) {
-        try {
-            java.nio.file.Path p = storage.getTicketsDir().resolve("ticket-" + saleId + ".txt");
-            if (java.nio.file.Files.exists(p)) {
-                return java.nio.file.Files.readString(p, java.nio.charset.StandardCharsets.UTF_8);
-            }
-        } catch (Exception ignored) {
-        }
-        return "(Sin ticket generado o no disponible)";
+        return tickets.read(saleId).orElse("(Sin ticket generado o no disponible)");
     }
 
 }
@@ -0,0 +1,197 @@
+package com.papeleria.pos.services;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * StockStore en bitácora binaria de solo anexar: data/stock.log.
+ *
+ * Encabezado: "PSTK", versión y huella (mtime, tamaño) del archivo de
+ * productos al que se aplica. Luego un registro por escritura:
+ * [largo][n, n × (clave UTF, stock double)][CRC32 del contenido]. Un cobro cuesta
+ * unas decenas de bytes en lugar de reescribir el catálogo. Un registro
+ * cortado por una caída (CRC inválido o incompleto) se descarta y el archivo
+ * se recorta ahí antes de volver a anexar.
+ *
+ * Varias cajas pueden compartir el archivo: anexar, recortar y reiniciar se
+ * hacen con un FileLock exclusivo, y la lectura también lo toma para no ver
+ * (ni recortar) un registro que otra caja está escribiendo.
+ *
+ * Pasado pos.stock.maxLogBytes (1 MB) pide un checkpoint: InventoryService
+ * reescribe el catálogo y la bitácora vuelve a quedar solo con el encabezado.
+ */
+final class StockLog implements StockStore {
+
+    private static final int MAGIC = 0x5053544B; // "PSTK"
+    private static final int VERSION = 1;
+    private static final int HEADER = 4 + 4 + 8 + 8;
+
+    private final Path path;
+    private final boolean fsync;
+    private final long maxBytes = Math.max(HEADER, Long.getLong("pos.stock.maxLogBytes", 1L << 20));
+    private FileChannel channel;
+    // Huella de la base a la que está atada la bitácora (null = sin encabezado válido)
+    private StorageService.FileStamp base;
+
+    StockLog(Path path) {
+        this.path = path;
+        this.fsync = !"false".equalsIgnoreCase(System.getProperty("pos.stock.fsync", "true").trim());
+    }
+
+    @Override
+    public synchronized Map<String, Double> load(StorageService.FileStamp productos) {
+        Map<String, Double> out = new HashMap<>();
+        base = null;
+        if (Files.notExists(path))
+            return out;
+        FileLock lock = null;
+        try {
+            FileChannel ch = channel();
+            lock = ch.lock();
+            long fin = ch.size();
+            // Sin cerrar: el canal sigue abierto para anexar
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch.position(0))));
+            if (fin < HEADER || in.readInt() != MAGIC || in.readInt() != VERSION)
+                return out;
+            StorageService.FileStamp st = new StorageService.FileStamp(in.readLong(), in.readLong());
+            if (!st.equals(productos))
+                return out; // bitácora de otra base: no aplica
+            base = st;
+
+            long valido = HEADER;
+            CRC32 crc = new CRC32();
+            while (valido + 8 <= fin) {
+                int len = in.readInt();
+                if (len < 4 || valido + 8 + len > fin)
+                    break;
+                byte[] payload = new byte[len];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload);
+                if (in.readInt() != (int) crc.getValue())
+                    break;
+                DataInputStream reg = new DataInputStream(new ByteArrayInputStream(payload));
+                int n = reg.readInt();
+                for (int i = 0; i < n; i++)
+                    out.put(reg.readUTF(), reg.readDouble());
+                valido += 8 + len;
+            }
+            if (valido < fin)
+                ch.truncate(valido); // cola dañada: se anexa a partir del último registro bueno
+        } catch (IOException e) {
+            base = null;
+        } finally {
+            release(lock);
+        }
+        return out;
+    }
+
+    @Override
+    public synchronized boolean write(StorageService.FileStamp productos, Map<String, Double> stock)
+            throws IOException {
+        if (base == null || !base.equals(productos))
+            return false;
+        if (stock.isEmpty())
+            return true;
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(8 + stock.size() * 24);
+        DataOutputStream d = new DataOutputStream(raw);
+        d.writeInt(stock.size());
+        for (Map.Entry<String, Double> e : stock.entrySet()) {
+            d.writeUTF(StockStore.key(e.getKey()));
+            d.writeDouble(e.getValue());
+        }
+        byte[] payload = raw.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buf = ByteBuffer.allocate(payload.length + 8);
+        buf.putInt(payload.length).put(payload).putInt((int) crc.getValue()).flip();
+
+        FileChannel ch = channel();
+        FileLock lock = ch.lock();
+        try {
+            long pos = ch.size();
+            while (buf.hasRemaining())
+                pos += ch.write(buf, pos);
+            if (fsync)
+                ch.force(false);
+        } finally {
+            lock.release();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void reset(StorageService.FileStamp productos, Map<String, Double> todos)
+            throws IOException {
+        base = null;
+        FileChannel ch = channel();
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        h.putInt(MAGIC).putInt(VERSION).putLong(productos.modified()).putLong(productos.size()).flip();
+        FileLock lock = ch.lock();
+        try {
+            ch.truncate(0);
+            while (h.hasRemaining())
+                ch.write(h, h.position());
+            if (fsync)
+                ch.force(true);
+        } finally {
+            lock.release();
+        }
+        base = productos;
+    }
+
+    @Override
+    public synchronized boolean needsCheckpoint() {
+        try {
+            return channel != null && channel.size() > maxBytes;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /** El tamaño: solo crece al anexar y vuelve al encabezado en cada reset. */
+    @Override
+    public synchronized long version() {
+        try {
+            return channel != null ? channel.size() : Files.size(path);
+        } catch (IOException e) {
+            return -1L;
+        }
+    }
+
+    @Override
+    public Path path() {
+        return path;
+    }
+
+    private static void release(FileLock lock) {
+        if (lock == null)
+            return;
+        try {
+            lock.release();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,53 @@
+package com.papeleria.pos.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Persistencia del stock separada del catálogo. El archivo de productos
+ * guarda nombres, precios y demás datos junto con el stock que tenía al
+ * escribirse por última vez (la "base"); aquí quedan los valores de stock
+ * posteriores a esa base, sin reescribir el catálogo.
+ *
+ * Las claves son SKUs normalizados (trim + minúsculas) y los valores son
+ * stock absoluto, no deltas: aplicar dos veces da el mismo resultado. Cada
+ * almacén se ata a la huella de la base para la que se escribió; si la base
+ * cambia por otro camino (edición externa, respaldo restaurado) sus valores
+ * ya no se aplican.
+ *
+ * Implementaciones: StockLog (bitácora, por omisión) y MappedStockTable
+ * (tabla mapeada en memoria); se elige con pos.stock.store=log|mapped.
+ */
+interface StockStore {
+
+    /** Stock vigente por clave sobre la base indicada; vacío si no hay cambios o no corresponde a esa base. */
+    Map<String, Double> load(StorageService.FileStamp base);
+
+    /**
+     * Registra valores de stock. false si el almacén no está atado a esa base
+     * (hay que reescribir el catálogo completo, que llama a reset).
+     */
+    boolean write(StorageService.FileStamp base, Map<String, Double> stock) throws IOException;
+
+    /**
+     * La base se acaba de reescribir con todo el stock (todos: clave -> stock
+     * de cada producto): se descarta lo anterior y se ata a la nueva huella.
+     */
+    void reset(StorageService.FileStamp base, Map<String, Double> todos) throws IOException;
+
+    /** true cuando conviene reescribir el catálogo para compactar. */
+    boolean needsCheckpoint();
+
+    /** Contador que cambia con cada escritura (también las de otras cajas). */
+    long version();
+
+    /** Archivo del almacén (para huellas y el observador de cambios). */
+    Path path();
+
+    /** Clave normalizada de un SKU (la misma que usa InventoryService). */
+    static String key(String sku) {
+        return sku == null ? "" : sku.trim().toLowerCase(Locale.ROOT);
+    }
+}
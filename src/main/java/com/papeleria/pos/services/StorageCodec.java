@@ -0,0 +1,45 @@
+package com.papeleria.pos.services;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Formato en disco de productos y ventas. Se elige con la propiedad del
+ * sistema pos.storage.codec:
+ * - json (por defecto): JSON compacto, sin espacios
+ * - pretty: JSON indentado (formato histórico)
+ * - binary: registros con prefijo de longitud (ver BinaryCodec)
+ */
+public interface StorageCodec {
+
+    /** Extensión del archivo que escribe este codec ("json" o "bin"). */
+    String extension();
+
+    /** true si los primeros bytes del archivo corresponden a este formato. */
+    boolean recognizes(byte[] head);
+
+    <T> List<T> readList(InputStream in, Class<T> type) throws IOException;
+
+    /** Entrega los registros uno a uno, sin armar la lista completa en memoria. */
+    <T> void forEach(InputStream in, Class<T> type, Consumer<? super T> visitor) throws IOException;
+
+    /** Recorre el contenido sin materializar objetos; lanza IOException si está truncado o dañado. */
+    void verify(InputStream in) throws IOException;
+
+    <T> void writeList(OutputStream out, List<T> items, Class<T> type) throws IOException;
+
+    static StorageCodec fromConfig(Gson pretty, Gson compact) {
+        String name = System.getProperty("pos.storage.codec", "json").trim().toLowerCase(Locale.ROOT);
+        return switch (name) {
+            case "binary", "bin" -> new BinaryCodec();
+            case "pretty" -> new JsonCodec(pretty, true);
+            default -> new JsonCodec(compact, false);
+        };
+    }
+}
@@ -6,50 +6,88 @@ import com.papeleria.pos.models.*;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.function.Consumer;
 
 public class StorageService {
     private final Path dataDir;
     private static final DateTimeFormatter ISO = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
     // Gson con adaptadores para LocalDateTime (evita errores de módulos)
-    private final Gson gson = new GsonBuilder()
-            .registerTypeAdapter(LocalDateTime.class,
-                    (JsonSerializer<LocalDateTime>) (src, t, ctx) ->
-                            src == null ? JsonNull.INSTANCE : new JsonPrimitive(ISO.format(src)))
-            .registerTypeAdapter(LocalDateTime.class,
-                    (JsonDeserializer<LocalDateTime>) (json, t, ctx) ->
-                            (json == null || json.isJsonNull() || json.getAsString().isBlank())
-                                    ? null : LocalDateTime.parse(json.getAsString(), ISO))
-            .setPrettyPrinting()
-            .create();
+    private final Gson gson = gsonBuilder().setPrettyPrinting().create();
+    // Variante compacta (una línea por registro) para el diario de ventas
+    private final Gson compactGson = gsonBuilder().create();
+
+    // Formato de products/sales (pos.storage.codec); los demás archivos siguen en JSON indentado
+    private final StorageCodec codec = StorageCodec.fromConfig(gson, compactGson);
+    private final JsonCodec jsonReader = new JsonCodec(gson, true);
+    private final BinaryCodec binaryReader = new BinaryCodec();
+
+    /** Generaciones .bak que se conservan por archivo (pos.storage.backups, 0 = sin respaldo). */
+    private final int backups = Math.max(0, Integer.getInteger("pos.storage.backups", 1));
+
+    /** Máximo de segmentos del diario antes de plegarlos en la base de ventas (pos.sales.maxSegments). */
+    private final int maxSalesSegments = Math.max(1, Integer.getInteger("pos.sales.maxSegments", 8));
 
     private final Path usersPath;
     private final Path productsPath;
     private final Path salesPath;
     private final Path recipesPath;
     private final Path sessionPath;
+    private final SalesJournal salesJournal;
+    private final CheckoutLog checkoutLog;
+    // Stock posterior a la última escritura completa de products (ver StockStore)
+    private final StockStore stockStore;
+
+    // Huellas tras la última escritura propia (o cambio externo ya avisado)
+    private FileStamp knownProductsStamp;
+    private String knownSalesStamp;
 
     public StorageService(Path baseDir) {
         this.dataDir = baseDir.resolve("data");
         this.usersPath = dataDir.resolve("users.json");
-        this.productsPath = dataDir.resolve("products.json");
-        this.salesPath = dataDir.resolve("sales.json");
+        this.productsPath = dataDir.resolve("products." + codec.extension());
+        this.salesPath = dataDir.resolve("sales." + codec.extension());
         this.recipesPath = dataDir.resolve("recipes.json");
         this.sessionPath = dataDir.resolve("session.json");
+        this.stockStore = "mapped".equalsIgnoreCase(System.getProperty("pos.stock.store", "log").trim())
+                ? new MappedStockTable(dataDir.resolve("stock.tbl"))
+                : new StockLog(dataDir.resolve("stock.log"));
         ensureFiles();
+        this.salesJournal = new SalesJournal(dataDir.resolve("ventas"), compactGson);
+        this.checkoutLog = new CheckoutLog(dataDir.resolve("checkout.wal"), compactGson);
+        this.knownProductsStamp = productsStamp();
+        this.knownSalesStamp = salesStamp();
+    }
+
+    private static GsonBuilder gsonBuilder() {
+        return new GsonBuilder()
+                .registerTypeAdapter(LocalDateTime.class,
+                        (JsonSerializer<LocalDateTime>) (src, t, ctx) ->
+                                src == null ? JsonNull.INSTANCE : new JsonPrimitive(ISO.format(src)))
+                .registerTypeAdapter(LocalDateTime.class,
+                        (JsonDeserializer<LocalDateTime>) (json, t, ctx) ->
+                                (json == null || json.isJsonNull() || json.getAsString().isBlank())
+                                        ? null : LocalDateTime.parse(json.getAsString(), ISO));
     }
 
     private void ensureFiles() {
         try {
             if (Files.notExists(dataDir)) Files.createDirectories(dataDir);
+            // Antes de crear vacíos: un primario ausente o dañado se recupera del respaldo
+            recoverIfCorrupt(usersPath);
+            recoverIfCorrupt(recipesPath);
+            migrateFormat("products", Product.class);
+            migrateFormat("sales", Sale.class);
             createIfMissing(usersPath, "[]");
-            createIfMissing(productsPath, "[]");
-            createIfMissing(salesPath, "[]");
+            createEmptyListIfMissing(productsPath, Product.class);
+            createEmptyListIfMissing(salesPath, Sale.class);
             createIfMissing(recipesPath, "[]");
             createIfMissing(sessionPath, "{\"username\":\"\",\"role\":\"\"}");
         } catch (IOException e) {
@@ -63,19 +101,180 @@ public class StorageService {
         }
     }
 
+    private <T> void createEmptyListIfMissing(Path path, Class<T> type) throws IOException {
+        if (Files.notExists(path))
+            writeAtomically(path, out -> codec.writeList(out, new ArrayList<>(), type));
+    }
+
+    /**
+     * Migración transparente al codec configurado: si solo existe el archivo en
+     * el otro formato (p. ej. products.json al pasar a binary) se convierte y el
+     * original queda como .migrated; si el JSON está indentado y el codec es
+     * JSON compacto, se reescribe compacto. Se ejecuta una sola vez por cambio.
+     */
+    private <T> void migrateFormat(String name, Class<T> type) throws IOException {
+        Path target = dataDir.resolve(name + "." + codec.extension());
+        Path other = dataDir.resolve(name + "." + (codec.extension().equals("json") ? "bin" : "json"));
+        if (Files.exists(other))
+            recoverIfCorrupt(other);
+        recoverIfCorrupt(target);
+
+        if (Files.notExists(target) && Files.exists(other)) {
+            List<T> items = readList(other, type);
+            Map<String, Double> stock = type == Product.class ? stockStore.load(stampOf(other)) : Map.of();
+            applyStock(items, stock);
+            writeAtomically(target, out -> codec.writeList(out, items, type));
+            if (type == Product.class)
+                stockStore.reset(stampOf(target), stockOf(items));
+            Files.move(other, other.resolveSibling(other.getFileName() + ".migrated"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } else if (Files.exists(target) && codec instanceof JsonCodec jc && !jc.isPretty() && looksIndented(target)) {
+            List<T> items = readList(target, type);
+            Map<String, Double> stock = type == Product.class ? stockStore.load(stampOf(target)) : Map.of();
+            applyStock(items, stock);
+            writeAtomically(target, out -> codec.writeList(out, items, type));
+            if (type == Product.class)
+                stockStore.reset(stampOf(target), stockOf(items));
+        }
+    }
+
+    private boolean looksIndented(Path path) throws IOException {
+        byte[] head = readHead(path, 64);
+        for (int i = 0; i + 1 < head.length; i++)
+            if (head[i] == '\n' && head[i + 1] == ' ')
+                return true;
+        return false;
+    }
+
+    /** Lee con el codec que corresponda al contenido, no al configurado. */
+    private <T> List<T> readList(Path path, Class<T> type) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return codecOf(path).readList(in, type);
+        }
+    }
+
+    private StorageCodec codecOf(Path path) throws IOException {
+        return binaryReader.recognizes(readHead(path, 8)) ? binaryReader : jsonReader;
+    }
+
+    private static byte[] readHead(Path path, int n) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.readNBytes(n);
+        }
+    }
+
+    /**
+     * Revisión de arranque: si el primario falta, está vacío o no se puede
+     * parsear, se aparta como .corrupt y se restaura la generación .bak más
+     * reciente que sí sea válida. Sin respaldo válido se deja como está.
+     */
+    private void recoverIfCorrupt(Path path) throws IOException {
+        Files.deleteIfExists(tmpOf(path)); // escritura interrumpida: el primario sigue intacto
+        if (Files.exists(path) && isValid(path))
+            return;
+        for (int gen = 1; gen <= Math.max(backups, 1); gen++) {
+            Path bak = bakOf(path, gen);
+            if (Files.exists(bak) && isValid(bak)) {
+                if (Files.exists(path))
+                    Files.move(path, path.resolveSibling(path.getFileName() + ".corrupt-" + System.currentTimeMillis()),
+                            StandardCopyOption.REPLACE_EXISTING);
+                Files.copy(bak, tmpOf(path), StandardCopyOption.REPLACE_EXISTING);
+                moveAtomically(tmpOf(path), path);
+                return;
+            }
+        }
+    }
+
+    /** Valida el contenido recorriéndolo con su codec, sin materializar objetos. */
+    private boolean isValid(Path path) {
+        try (InputStream in = Files.newInputStream(path)) {
+            codecOf(path).verify(in);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
     // Tipados
+    /** Productos de la base con el stock posterior de stock.log ya aplicado. */
     public List<Product> loadProducts(){
-        try (Reader r = Files.newBufferedReader(productsPath, StandardCharsets.UTF_8)){
-            Type t = new TypeToken<List<Product>>(){}.getType();
-            List<Product> list = gson.fromJson(r, t);
-            return list != null ? list : new ArrayList<>();
+        try {
+            List<Product> list = readList(productsPath, Product.class);
+            applyStock(list, stockStore.load(stampOf(productsPath)));
+            return list;
         } catch (IOException e){
             return new ArrayList<>();
         }
     }
 
+    /** Reescribe el catálogo completo (con su stock) y deja stock.log vacío sobre esa base. */
     public void saveProducts(List<Product> products){
-        writeJson(productsPath, products);
+        writeList(productsPath, products, Product.class);
+        try {
+            stockStore.reset(stampOf(productsPath), stockOf(products));
+        } catch (IOException e){
+            // Sin encabezado válido la bitácora no se usa: el siguiente cambio de stock reescribe todo
+        }
+        synchronized (this) {
+            knownProductsStamp = productsStamp();
+        }
+    }
+
+    /**
+     * Guarda solo el stock (clave -> valor absoluto) sin reescribir el catálogo.
+     * false si hace falta una escritura completa con saveProducts: la bitácora
+     * no corresponde al archivo de productos actual o ya creció lo suficiente
+     * para compactarla.
+     */
+    public boolean saveStock(Map<String, Double> stock){
+        if (stockStore.needsCheckpoint())
+            return false;
+        boolean ok;
+        try {
+            ok = stockStore.write(stampOf(productsPath), stock);
+        } catch (IOException e){
+            throw new RuntimeException("No se pudo escribir: " + stockStore.path(), e);
+        }
+        if (ok) {
+            synchronized (this) {
+                knownProductsStamp = productsStamp();
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Solo el stock posterior a la última escritura completa (clave -> valor),
+     * leído del almacén de stock sin tocar el JSON del catálogo. Vacío si no
+     * hay cambios o no corresponden al archivo de productos actual.
+     */
+    public Map<String, Double> loadStock(){
+        return stockStore.load(stampOf(productsPath));
+    }
+
+    /** Huella del archivo de productos solo (sin el almacén de stock). */
+    public FileStamp productsBaseStamp(){
+        return stampOf(productsPath);
+    }
+
+    private static <T> void applyStock(List<T> items, Map<String, Double> stock){
+        if (stock.isEmpty())
+            return;
+        for (T it : items) {
+            if (it instanceof Product p && p.getSku() != null) {
+                Double v = stock.get(StockStore.key(p.getSku()));
+                if (v != null)
+                    p.setStock(v);
+            }
+        }
+    }
+
+    private static <T> Map<String, Double> stockOf(List<T> items){
+        Map<String, Double> out = new LinkedHashMap<>();
+        for (T it : items)
+            if (it instanceof Product p && p.getSku() != null)
+                out.putIfAbsent(StockStore.key(p.getSku()), p.getStock());
+        return out;
     }
 
     public List<User> loadUsers(){
@@ -92,32 +291,130 @@ public class StorageService {
         writeJson(usersPath, users);
     }
 
-    public List<Sale> loadSales(){
-        try (Reader r = Files.newBufferedReader(salesPath, StandardCharsets.UTF_8)){
-            Type t = new TypeToken<List<Sale>>(){}.getType();
-            List<Sale> list = gson.fromJson(r, t);
-            return list != null ? list : new ArrayList<>();
-        } catch (IOException e){
-            return new ArrayList<>();
+    /** Ventas vigentes: base (sales.json/.bin) + segmentos + diario (cancelaciones aplicadas). */
+    public synchronized List<Sale> loadSales(){
+        Map<String, Sale> byId = new LinkedHashMap<>();
+        int sinId = 0;
+        for (Sale s : loadSalesBase())
+            byId.put(s.getId() != null ? s.getId() : "\u0000" + (sinId++), s);
+        salesJournal.replay(byId);
+        return new ArrayList<>(byId.values());
+    }
+
+    /**
+     * Recorre las ventas vigentes sin materializar el historial: la base se lee
+     * registro a registro con el codec y el diario se aplica como overlay
+     * (memoria acotada al tamaño del diario). El orden es base y luego diario.
+     * Pensado para agregaciones; para editar ventas usar loadSales().
+     *
+     * Solo la foto del diario y la apertura de la base se hacen bajo el
+     * bloqueo; el recorrido (y el visitante) corren sin él, así que un
+     * recorrido largo no detiene cobros ni cancelaciones. Si mientras tanto
+     * se compacta, el archivo abierto sigue siendo la base de esa foto.
+     */
+    public void forEachSale(Consumer<Sale> visitor){
+        SalesJournal.Overlay overlay;
+        StorageCodec codec = null;
+        InputStream base = null;
+        synchronized (this) {
+            overlay = salesJournal.overlay();
+            try {
+                codec = codecOf(salesPath);
+                base = Files.newInputStream(salesPath);
+            } catch (IOException ignored) {
+            }
+        }
+        if (base != null) {
+            StorageCodec c = codec;
+            try (InputStream in = base) {
+                c.forEach(in, Sale.class, s -> {
+                    if (!overlay.decides(s.getId()))
+                        visitor.accept(s);
+                });
+            } catch (IOException ignored) {
+            }
         }
+        overlay.forEachLive(visitor);
     }
 
-    public void saveSales(List<Sale> sales){
-        writeJson(salesPath, sales);
+    /** Busca una venta por id recorriendo el historial en streaming. */
+    public Optional<Sale> findSale(String id){
+        if (id == null)
+            return Optional.empty();
+        Sale[] found = new Sale[1];
+        forEachSale(s -> {
+            if (id.equals(s.getId()))
+                found[0] = s;
+        });
+        return Optional.ofNullable(found[0]);
     }
 
-    public List<RecipeItem> loadRecipes(){
-        try (Reader r = Files.newBufferedReader(recipesPath, StandardCharsets.UTF_8)){
-            Type t = new TypeToken<List<RecipeItem>>(){}.getType();
-            List<RecipeItem> list = gson.fromJson(r, t);
-            return list != null ? list : new ArrayList<>();
+    private List<Sale> loadSalesBase(){
+        try {
+            return readList(salesPath, Sale.class);
         } catch (IOException e){
             return new ArrayList<>();
         }
     }
 
-    public void saveRecipes(List<RecipeItem> recipes){
-        writeJson(recipesPath, recipes);
+    /** Reescribe la base completa y descarta el diario (compactación total). */
+    public synchronized void saveSales(List<Sale> sales){
+        writeList(salesPath, sales, Sale.class);
+        salesJournal.reset();
+        knownSalesStamp = salesStamp();
+    }
+
+    /** Registra una venta con un solo anexo al diario: costo independiente del historial. */
+    public synchronized void appendSale(Sale sale){
+        String antes = knownSalesStamp;
+        boolean propio = salesStamp().equals(antes);
+        salesJournal.appendSale(sale);
+        compactSalesIfNeeded();
+        afterOwnSalesWrite(antes, propio);
+    }
+
+    /** Varias ventas en un solo anexo (cobro agrupado). */
+    public synchronized void appendSales(List<Sale> sales){
+        if (sales.isEmpty())
+            return;
+        String antes = knownSalesStamp;
+        boolean propio = salesStamp().equals(antes);
+        salesJournal.appendSales(sales);
+        compactSalesIfNeeded();
+        afterOwnSalesWrite(antes, propio);
+    }
+
+    /** Registra la cancelación de una venta como tombstone en el diario. */
+    public synchronized void appendSaleCancel(String saleId){
+        String antes = knownSalesStamp;
+        boolean propio = salesStamp().equals(antes);
+        salesJournal.appendCancel(saleId);
+        compactSalesIfNeeded();
+        afterOwnSalesWrite(antes, propio);
+    }
+
+    /**
+     * Tras un anexo propio la huella conocida pasa a la actual, salvo que el
+     * historial ya hubiera cambiado por fuera antes del anexo: entonces se
+     * deja la anterior para que salesChangedExternally() lo siga viendo.
+     */
+    private void afterOwnSalesWrite(String antes, boolean propio){
+        knownSalesStamp = propio ? salesStamp() : antes;
+    }
+
+    /**
+     * Huella actual si el historial solo tiene escrituras propias desde la
+     * última revisión (lo que publicó este proceso lo cubre todo); null si
+     * hay cambios externos pendientes de avisar.
+     */
+    public synchronized String ownSalesStamp(){
+        String now = salesStamp();
+        return now.equals(knownSalesStamp) ? now : null;
+    }
+
+    private void compactSalesIfNeeded(){
+        if (salesJournal.segmentCount() > maxSalesSegments)
+            saveSales(loadSales());
     }
 
     public Map<String, String> loadSession(){
@@ -138,14 +435,168 @@ public class StorageService {
     }
 
     private void writeJson(Path path, Object obj){
-        try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8,
-                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE)){
-            gson.toJson(obj, w);
+        try {
+            writeAtomically(path, out -> {
+                Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                gson.toJson(obj, w);
+                w.flush();
+            });
         } catch (IOException e){
             throw new RuntimeException("No se pudo escribir: " + path, e);
         }
     }
 
+    private <T> void writeList(Path path, List<T> items, Class<T> type){
+        try {
+            writeAtomically(path, out -> codec.writeList(out, items, type));
+        } catch (IOException e){
+            throw new RuntimeException("No se pudo escribir: " + path, e);
+        }
+    }
+
+    /** Contenido a escribir en el temporal. */
+    interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Escritura a prueba de caídas: temporal en el mismo directorio, force() y
+     * move atómico sobre el destino. Una caída deja el archivo anterior o el
+     * nuevo completos, nunca uno truncado. Antes del move se rota el respaldo
+     * .bak (enlace duro al archivo anterior; copia si el FS no lo permite).
+     */
+    private void writeAtomically(Path path, Body body) throws IOException {
+        Path tmp = tmpOf(path);
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch));
+            body.writeTo(out);
+            out.flush();
+            ch.force(true);
+        }
+        if (backups > 0 && Files.exists(path))
+            rotateBackups(path);
+        moveAtomically(tmp, path);
+    }
+
+    private void rotateBackups(Path path) throws IOException {
+        Files.deleteIfExists(bakOf(path, backups));
+        for (int gen = backups - 1; gen >= 1; gen--) {
+            Path from = bakOf(path, gen);
+            if (Files.exists(from))
+                Files.move(from, bakOf(path, gen + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Path bak = bakOf(path, 1);
+        Files.deleteIfExists(bak);
+        try {
+            Files.createLink(bak, path);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(path, bak, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void moveAtomically(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Persiste la entrada del directorio (no soportado en todos los SO)
+        try (FileChannel dir = FileChannel.open(to.getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException | UnsupportedOperationException ignored) {
+        }
+    }
+
+    private static Path tmpOf(Path path){
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    private static Path bakOf(Path path, int gen){
+        return path.resolveSibling(path.getFileName() + (gen == 1 ? ".bak" : ".bak" + gen));
+    }
+
+    /**
+     * Huella de productos + almacén de stock (mtime más reciente; tamaño más
+     * la versión del almacén) para detectar ediciones externas; un cambio de
+     * stock de otra caja también cuenta. Las escrituras por mmap no siempre
+     * actualizan el mtime, por eso se usa la versión y no el tamaño.
+     */
+    public FileStamp productsStamp(){
+        FileStamp base = stampOf(productsPath);
+        FileStamp st = stampOf(stockStore.path());
+        return new FileStamp(Math.max(base.modified(), st.modified()), base.size() + stockStore.version());
+    }
+
+    private FileStamp stampOf(Path path){
+        try {
+            return new FileStamp(Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+        } catch (IOException e){
+            return new FileStamp(0L, -1L);
+        }
+    }
+
+    public record FileStamp(long modified, long size) {}
+
+    /**
+     * true si el archivo de productos cambió desde la última escritura propia
+     * (o desde el último aviso); cada cambio externo se informa una sola vez.
+     */
+    public synchronized boolean productsChangedExternally(){
+        FileStamp now = productsStamp();
+        if (now.equals(knownProductsStamp))
+            return false;
+        knownProductsStamp = now;
+        return true;
+    }
+
+    /** Igual que productsChangedExternally(), para el historial de ventas. */
+    public synchronized boolean salesChangedExternally(){
+        String now = salesStamp();
+        if (now.equals(knownSalesStamp))
+            return false;
+        knownSalesStamp = now;
+        return true;
+    }
+
+    /** Huella del historial de ventas (base + segmentos + diario) para validar cachés derivadas. */
+    public synchronized String salesStamp(){
+        FileStamp base = stampOf(salesPath);
+        return base.modified() + ":" + base.size() + "|" + salesJournal.stamp();
+    }
+
+    /* ======================= Cachés derivadas ======================= */
+
+    /** Lee data/cache/&lt;name&gt;.json; null si no existe o no se puede leer (se reconstruye). */
+    public <T> T loadCache(String name, Class<T> type){
+        Path p = cachePath(name);
+        if (Files.notExists(p))
+            return null;
+        try (Reader r = Files.newBufferedReader(p, StandardCharsets.UTF_8)){
+            return compactGson.fromJson(r, type);
+        } catch (IOException | JsonParseException e){
+            return null;
+        }
+    }
+
+    public void saveCache(String name, Object data){
+        Path p = cachePath(name);
+        try {
+            Files.createDirectories(p.getParent());
+            writeAtomically(p, out -> {
+                Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                compactGson.toJson(data, w);
+                w.flush();
+            });
+        } catch (IOException e){
+            throw new RuntimeException("No se pudo escribir: " + p, e);
+        }
+    }
+
+    private Path cachePath(String name){
+        return dataDir.resolve("cache").resolve(name + ".json");
+    }
+
     public Path getTicketsDir(){
         Path p = dataDir.resolve("tickets");
         try { if (Files.notExists(p)) Files.createDirectories(p); } catch (IOException ignored) {}
@@ -153,4 +604,13 @@ public class StorageService {
     }
 
     public Path getDataDir() { return dataDir; }
+
+    Path getRecipesPath() { return recipesPath; }
+
+    /** recipes.json con la misma escritura (temporal, force, .bak) que el resto de los datos. */
+    void writeRecipes(Body body) throws IOException {
+        writeAtomically(recipesPath, body);
+    }
+
+    public CheckoutLog getCheckoutLog() { return checkoutLog; }
 }
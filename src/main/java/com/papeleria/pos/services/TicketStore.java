@@ -0,0 +1,32 @@
+package com.papeleria.pos.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Optional;
+
+/**
+ * Dónde viven los tickets. Lo usa TicketWriter desde su hilo escritor.
+ * Se elige con la propiedad pos.tickets.mode:
+ * - files (por defecto): un ticket-&lt;id&gt;.txt por venta
+ * - archive: un archivo por día con índice id -> posición (ver ArchiveTicketStore)
+ */
+public interface TicketStore {
+
+    void write(String saleId, String text) throws IOException;
+
+    void delete(String saleId) throws IOException;
+
+    Optional<String> read(String saleId);
+
+    /** Se llama al terminar cada lote de escrituras. */
+    default void sync() throws IOException {
+    }
+
+    static TicketStore fromConfig(Path ticketsDir) {
+        String mode = System.getProperty("pos.tickets.mode", "files").trim().toLowerCase(Locale.ROOT);
+        if (mode.equals("archive"))
+            return new ArchiveTicketStore(ticketsDir);
+        return new FileTicketStore(ticketsDir);
+    }
+}
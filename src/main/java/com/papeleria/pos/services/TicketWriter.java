@@ -0,0 +1,140 @@
+package com.papeleria.pos.services;
+
+import com.papeleria.pos.models.Sale;
+import com.papeleria.pos.models.SaleItem;
+
+import java.io.IOException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Tickets de venta: se renderizan una sola vez en un búfer reutilizado y se
+ * entregan de inmediato a la UI; la escritura a disco la hace un hilo en
+ * segundo plano que agrupa los tickets pendientes. Mientras un ticket no se
+ * escribe, read() lo sirve desde memoria, así que la impresión no depende de
+ * la velocidad del disco. El formato en disco lo decide el TicketStore.
+ */
+public class TicketWriter {
+
+    private static final DateTimeFormatter FECHA = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final String LINEA = "----------------------------------------\n";
+
+    private final TicketStore store;
+
+    // Búfer y Formatter reutilizados entre tickets (protegidos por render)
+    private final StringBuilder buf = new StringBuilder(512);
+    private final Formatter fmt = new Formatter(buf);
+
+    /** Tickets encolados que aún no llegan a disco. */
+    private final Map<String, String> pendientes = new ConcurrentHashMap<>();
+    private final BlockingQueue<Op> cola = new LinkedBlockingQueue<>();
+    private final Object idle = new Object();
+
+    /** Operación para el hilo escritor; text == null significa borrar. */
+    private record Op(String id, String text) {}
+
+    public TicketWriter(TicketStore store) {
+        this.store = store;
+        Thread t = new Thread(this::loop, "pos-tickets");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "pos-tickets-flush"));
+    }
+
+    /* ======================= Render ======================= */
+
+    /** Texto del ticket; mismo formato que los tickets existentes. */
+    public synchronized String render(Sale s, double cambioRed) {
+        buf.setLength(0);
+        buf.append("Ticket: ").append(s.getId()).append('\n')
+                .append("Fecha: ").append(s.getFecha() == null ? "" : s.getFecha().format(FECHA)).append('\n')
+                .append(LINEA);
+        for (SaleItem it : s.getItems()) {
+            fmt.format("%-22s %6.3f x %6.2f = %7.2f\n",
+                    it.getNombre(), it.getCantidadBase(), it.getPrecioUnitario(), it.getSubtotal());
+        }
+        buf.append(LINEA);
+        fmt.format("TOTAL:    %,.2f\n", s.getTotal());
+        fmt.format("EFECTIVO: %,.2f\n", s.getEfectivo());
+        fmt.format("CAMBIO:   %,.2f\n", cambioRed);
+        return buf.toString();
+    }
+
+    /* ======================= Escritura en segundo plano ======================= */
+
+    /** Encola el ticket para escribirlo; queda legible desde memoria al instante. */
+    public void submit(String saleId, String text) {
+        pendientes.put(saleId, text);
+        cola.add(new Op(saleId, text));
+    }
+
+    /** Borra el ticket (en orden con las escrituras pendientes). */
+    public void delete(String saleId) {
+        pendientes.remove(saleId);
+        cola.add(new Op(saleId, null));
+    }
+
+    public Optional<String> read(String saleId) {
+        String p = pendientes.get(saleId);
+        if (p != null)
+            return Optional.of(p);
+        return store.read(saleId);
+    }
+
+    /** Espera (máx. 5 s) a que se escriba todo lo encolado (cierre de la aplicación). */
+    public void flush() {
+        long limite = System.currentTimeMillis() + 5000;
+        synchronized (idle) {
+            while ((!cola.isEmpty() || !pendientes.isEmpty()) && System.currentTimeMillis() < limite) {
+                try {
+                    idle.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void loop() {
+        List<Op> lote = new ArrayList<>();
+        while (true) {
+            try {
+                lote.clear();
+                lote.add(cola.take());
+                cola.drainTo(lote);
+                for (Op op : lote) {
+                    try {
+                        if (op.text() == null)
+                            store.delete(op.id());
+                        else
+                            store.write(op.id(), op.text());
+                    } catch (IOException ignored) {
+                    }
+                }
+                try {
+                    store.sync();
+                } catch (IOException ignored) {
+                }
+                // Ya en disco: se sueltan de memoria (salvo que llegara una versión más nueva)
+                for (Op op : lote)
+                    if (op.text() != null)
+                        pendientes.remove(op.id(), op.text());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException ignored) {
+            } finally {
+                synchronized (idle) {
+                    idle.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -22,11 +22,14 @@ public class MainApp extends Application {
         SessionService session = new SessionService(storage);
         InventoryService inventory = new InventoryService(storage, bus);
         SalesService sales = new SalesService(storage, inventory, bus);
+        SalesAggregates aggregates = new SalesAggregates(storage, inventory, bus);
         // pasar storage al servicio de producción
         ProductionService production = new ProductionService(inventory, bus, storage);
+        // cambios externos en data/ (WatchService) -> FILES_CHANGED
+        new FileChangeService(storage, bus);
 
         Runnable openMain = () -> {
-            MainView main = new MainView(session, inventory, sales, production, bus, storage);
+            MainView main = new MainView(session, inventory, sales, production, aggregates, bus, storage);
             Scene scene = new Scene(main, 1200, 750);
             scene.getStylesheets().add(getClass().getResource("/css/app.css").toExternalForm());
             primaryStage.setTitle("POS Papelería");
@@ -1,10 +1,13 @@
 package com.papeleria.pos.views;
 
 import com.papeleria.pos.components.AlertBanner;
+import com.papeleria.pos.components.DebouncedSearch;
 import com.papeleria.pos.models.Product;
 import com.papeleria.pos.services.EventBus;
+import com.papeleria.pos.services.ImportReport;
 import com.papeleria.pos.services.InventoryService;
 import com.papeleria.pos.services.SessionService;
+import javafx.application.Platform;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -31,6 +34,7 @@ public class InventoryView extends VBox {
     private final ObservableList<Product> backing = FXCollections.observableArrayList();
     private final TableView<Product> table = new TableView<>(backing);
     private final TextField search = new TextField();
+    private final DebouncedSearch<List<Product>> busqueda;
 
     public InventoryView(SessionService session, InventoryService service, EventBus bus) {
         this.session = session;
@@ -70,11 +74,11 @@ public class InventoryView extends VBox {
         getChildren().addAll(title, sub, kpis, actions, table);
 
         // Eventos
-        search.textProperty().addListener((o, old, v) -> refresh());
-        bus.subscribe(EventBus.Topic.INVENTORY_CHANGED, ev -> {
+        busqueda = new DebouncedSearch<>(search, service::search, backing::setAll);
+        bus.subscribe(EventBus.Topic.INVENTORY_CHANGED, ev -> Platform.runLater(() -> {
             refresh();
             actualizarKpis(kpis);
-        });
+        }));
 
         // Acciones
         btnAddEdit.setOnAction(ev -> {
@@ -134,12 +138,40 @@ public class InventoryView extends VBox {
             fc.getExtensionFilters().add(new FileChooser.ExtensionFilter("Excel .xlsx", "*.xlsx"));
             File f = fc.showOpenDialog(getScene().getWindow());
             if (f != null) {
-                try {
-                    int n = service.importFromExcel(Path.of(f.getAbsolutePath()));
-                    getChildren().add(0, AlertBanner.success("Importados: " + n));
-                } catch (Exception ex) {
-                    getChildren().add(0, AlertBanner.danger("Error importando: " + ex.getMessage()));
-                }
+                // Importa en segundo plano; el aviso muestra las filas leídas
+                AlertBanner progreso = AlertBanner.info("Importando productos…");
+                getChildren().removeIf(n -> n instanceof AlertBanner);
+                getChildren().add(0, progreso);
+                btnImport.setDisable(true);
+                Path path = Path.of(f.getAbsolutePath());
+                Thread t = new Thread(() -> {
+                    AlertBanner fin;
+                    try {
+                        ImportReport r = service.importFromExcel(path, filas -> Platform.runLater(
+                                () -> progreso.setMessage("Importando productos… " + filas + " filas leídas")));
+                        if (r.hasErrors()) {
+                            // Resumen con las primeras filas rechazadas
+                            StringBuilder sb = new StringBuilder("Importados: " + r.getImported() + " · "
+                                    + r.getErrorCount() + " filas con errores");
+                            r.getErrors().stream().limit(3).forEach(er -> sb.append("\n").append(er));
+                            if (r.getErrorCount() > 3)
+                                sb.append("\n…");
+                            fin = AlertBanner.warn(sb.toString());
+                        } else {
+                            fin = AlertBanner.success("Importados: " + r.getImported());
+                        }
+                    } catch (Exception ex) {
+                        fin = AlertBanner.danger("Error importando: " + ex.getMessage());
+                    }
+                    AlertBanner resultado = fin;
+                    Platform.runLater(() -> {
+                        getChildren().remove(progreso);
+                        getChildren().add(0, resultado);
+                        btnImport.setDisable(false);
+                    });
+                }, "pos-import");
+                t.setDaemon(true);
+                t.start();
             }
         });
 
@@ -415,10 +447,9 @@ public class InventoryView extends VBox {
         result.ifPresent(service::upsert);
     }
 
+    /** La búsqueda corre fuera del hilo de JavaFX; la tabla se llena al volver. */
     private void refresh() {
-        String q = search.getText();
-        List<Product> src = service.search(q);
-        backing.setAll(src);
+        busqueda.now();
     }
 
     // Muestra una alerta en el tope y la retira sola
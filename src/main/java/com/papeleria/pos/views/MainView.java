@@ -3,6 +3,7 @@ package com.papeleria.pos.views;
 import com.papeleria.pos.services.EventBus;
 import com.papeleria.pos.services.InventoryService;
 import com.papeleria.pos.services.ProductionService;
+import com.papeleria.pos.services.SalesAggregates;
 import com.papeleria.pos.services.SalesService;
 import com.papeleria.pos.services.SessionService;
 import com.papeleria.pos.services.StorageService;
@@ -23,6 +24,7 @@ public class MainView extends BorderPane {
     private final InventoryService inventoryService;
     private final SalesService salesService;
     private final ProductionService productionService;
+    private final SalesAggregates aggregates;
     private final EventBus bus;
     private final StorageService storage;
 
@@ -39,6 +41,7 @@ public class MainView extends BorderPane {
             InventoryService inventoryService,
             SalesService salesService,
             ProductionService productionService,
+            SalesAggregates aggregates,
             EventBus bus,
             StorageService storage) {
 
@@ -46,6 +49,7 @@ public class MainView extends BorderPane {
         this.inventoryService = inventoryService;
         this.salesService = salesService;
         this.productionService = productionService;
+        this.aggregates = aggregates;
         this.bus = bus;
         this.storage = storage;
 
@@ -73,7 +77,7 @@ public class MainView extends BorderPane {
         inventoryView = new InventoryView(session, inventoryService, bus);
         salesView = new SalesView(session, salesService, inventoryService, bus);
         productionView = new ProductionView(session, productionService, inventoryService, bus);
-        reportsView = new ReportsView(session, salesService, inventoryService, storage, bus);
+        reportsView = new ReportsView(session, salesService, inventoryService, storage, aggregates, bus);
 
         // UsersView por reflexión (si falta, será null)
         usersView = tryBuildUsersView();
@@ -1,13 +1,10 @@
 package com.papeleria.pos.views;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import com.papeleria.pos.components.AlertBanner;
 import com.papeleria.pos.components.AutoCompleteCombo;
 import com.papeleria.pos.models.Product;
-import com.papeleria.pos.models.RecipeItem;
 import com.papeleria.pos.services.EventBus;
+import com.papeleria.pos.services.FileChangeService;
 import com.papeleria.pos.services.InventoryService;
 import com.papeleria.pos.services.ProductionService;
 import com.papeleria.pos.services.SessionService;
@@ -24,13 +21,8 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.util.Duration;
 
-import java.lang.reflect.Type;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
 import java.text.Normalizer;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 import com.papeleria.pos.services.RecipesStore;
@@ -45,10 +37,10 @@ public class ProductionView extends BorderPane {
     private final ProductionService production;
     private final InventoryService inventory;
     private final EventBus bus;
-    private final RecipesStore recipes = new RecipesStore();
+    private final RecipesStore recipes;
 
     // Estado receta
-    private RecipeFile recetaActual = null;
+    private RecipesStore.Recipe recetaActual = null;
     private boolean recetaBloqueada = false;
 
     // UI raíz
@@ -90,7 +82,6 @@ public class ProductionView extends BorderPane {
     private final TextField precioDirecto = new TextField();
     private final Spinner<Double> margen = new Spinner<>(0.0, 1000.0, 50.0, 1.0);
 
-    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
 
     public ProductionView(SessionService session, ProductionService production, InventoryService inventory,
             EventBus bus) {
@@ -98,6 +89,7 @@ public class ProductionView extends BorderPane {
         this.production = production;
         this.inventory = inventory;
         this.bus = bus;
+        this.recipes = production.getRecipes();
 
         setPadding(new Insets(12));
         Label t = new Label("Armar Productos");
@@ -154,7 +146,11 @@ public class ProductionView extends BorderPane {
 
         cargarCatalogo();
         refrescarListaRecetas();
-        startFileWatch(); // observa data/products.json y data/recetas/
+        // Recetas editadas por fuera (data/recetas, recipes.json); los productos llegan por INVENTORY_CHANGED
+        bus.subscribeEach(EventBus.Topic.FILES_CHANGED, ev -> {
+            if (ev instanceof FileChangeService.Change c && c.kind() == FileChangeService.Kind.RECIPES)
+                Platform.runLater(this::refrescarListaRecetas);
+        });
 
         rbNuevo.setSelected(true);
         aplicarModo(true);
@@ -242,6 +238,8 @@ public class ProductionView extends BorderPane {
                 material,
                 listaInicial,
                 p -> p.getNombre() + " (" + p.getSku() + ")");
+        // con catálogos grandes solo se muestran 200 a la vez; el resto al hacer scroll
+        acMat.setMaxResults(200);
 
         presentacion.getItems().setAll("Unidad");
         presentacion.getSelectionModel().selectFirst();
@@ -478,7 +476,7 @@ public class ProductionView extends BorderPane {
         if (nombre.isEmpty())
             return;
 
-        if (Files.exists(pathReceta(nombre))) {
+        if (recipes.exists(nombre)) {
             rbRepro.setSelected(true);
             aplicarModo(false);
             recetaSelect.getSelectionModel().select(nombre);
@@ -515,7 +513,7 @@ public class ProductionView extends BorderPane {
             return;
         }
 
-        if (rbNuevo.isSelected() && Files.exists(pathReceta(nombre))) {
+        if (rbNuevo.isSelected() && recipes.exists(nombre)) {
             flash(AlertBanner.warn("Ya existe una receta con ese nombre. Usa 'Reproducir receta'."));
             return;
         }
@@ -589,6 +587,7 @@ public class ProductionView extends BorderPane {
         }
 
         // GUARDAR RECETA cuando el flujo es "nuevo"
+        boolean recetaGuardada = true;
         if (rbNuevo.isSelected()) {
             RecipesStore.Recipe r = new RecipesStore.Recipe();
             r.nombre = nombre;
@@ -603,11 +602,16 @@ public class ProductionView extends BorderPane {
                 it.cantidadBase = round2(inventory.toBase(in.prod, in.cantidadPorProducto));
                 r.items.add(it);
             }
-            recipes.upsert(r);
+            try {
+                recipes.upsert(r);
+            } catch (java.io.IOException e) {
+                recetaGuardada = false;
+            }
             refrescarListaRecetas();
         }
 
-        flash(AlertBanner.success("Fabricación completada"));
+        flash(recetaGuardada ? AlertBanner.success("Fabricación completada")
+                : AlertBanner.warn("Fabricación completada, pero no se pudo guardar la receta"));
         if (rbNuevo.isSelected())
             aplicarModo(true);
         recalc();
@@ -623,17 +627,16 @@ public class ProductionView extends BorderPane {
 
         Product sel = material.getValue();
 
-        // actualiza items visibles del ComboBox
-        material.getItems().setAll(list);
-
-        // refresca dataset del autocompletado
+        // refresca dataset del autocompletado (también los items visibles del ComboBox)
         if (acMat != null) {
             acMat.refreshData(javafx.collections.FXCollections.observableArrayList(list));
+        } else {
+            material.getItems().setAll(list);
         }
 
         // re-selecciona por SKU si había algo elegido
         if (sel != null) {
-            for (var it : material.getItems()) {
+            for (var it : list) {
                 if (it.getSku() != null && it.getSku().equalsIgnoreCase(sel.getSku())) {
                     material.setValue(it);
                     break;
@@ -744,26 +747,9 @@ public class ProductionView extends BorderPane {
 
     /* =================== Recetas =================== */
 
-    private Path recetasDir() {
-        return Path.of("").toAbsolutePath().resolve("data").resolve("recetas");
-    }
-
-    private Path pathReceta(String nombre) {
-        return recetasDir().resolve(slug(nombre) + ".json");
-    }
-
     private List<String> listaFabricables() {
         Set<String> out = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
-        try {
-            Path dir = recetasDir();
-            if (Files.exists(dir)) {
-                try (var s = Files.list(dir)) {
-                    s.filter(p -> p.toString().endsWith(".json"))
-                            .forEach(p -> out.add(p.getFileName().toString().replace(".json", "")));
-                }
-            }
-        } catch (Exception ignored) {
-        }
+        out.addAll(recipes.names());
         for (Product p : inventory.list()) {
             String cat = safe(p.getCategoria());
             if ("Producción".equalsIgnoreCase(cat) && p.getNombre() != null)
@@ -772,41 +758,16 @@ public class ProductionView extends BorderPane {
         return new ArrayList<>(out);
     }
 
-    private RecipeFile loadRecipeFile(String nombre) {
-        try {
-            Path p = pathReceta(nombre);
-            if (!Files.exists(p))
-                return null;
-            String s = Files.readString(p, StandardCharsets.UTF_8).trim();
-            if (s.startsWith("[")) {
-                Type T = new TypeToken<List<RecipeItem>>() {
-                }.getType();
-                List<RecipeItem> items = gson.fromJson(s, T);
-                RecipeFile rf = new RecipeFile();
-                rf.nombre = nombre;
-                rf.sku = "";
-                rf.margen = 50.0;
-                rf.manoObraUnit = 0.0;
-                rf.precioDirecto = 0.0;
-                rf.items = items == null ? new ArrayList<>() : items;
-                return rf;
-            } else
-                return gson.fromJson(s, RecipeFile.class);
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     private void cargarRecetaPorNombre(String nombre, boolean autofill) {
         var opt = recipes.getByName(nombre);
         if (opt.isEmpty()) {
-            flash(AlertBanner.warn("No se encontró la receta en recipes.json"));
+            flash(AlertBanner.warn("No se encontró la receta"));
             return;
         }
         var rf = opt.get();
 
         // Snapshot interno
-        recetaActual = new RecipeFile();
+        recetaActual = new RecipesStore.Recipe();
         recetaActual.nombre = rf.nombre;
         recetaActual.sku = rf.sku == null ? "" : rf.sku;
         recetaActual.margen = rf.margen;
@@ -856,42 +817,7 @@ public class ProductionView extends BorderPane {
     }
 
     private void refrescarListaRecetas() {
-        var nombres = new ArrayList<String>();
-        for (RecipesStore.Recipe r : recipes.list())
-            nombres.add(r.nombre);
-        Collections.sort(nombres, String.CASE_INSENSITIVE_ORDER);
-        recetaSelect.setItems(FXCollections.observableArrayList(nombres));
-    }
-
-    private RecipeFile snapshotReceta(String nombre, String sku) {
-        RecipeFile rf = new RecipeFile();
-        rf.nombre = nombre;
-        rf.sku = sku;
-        rf.margen = pmMargen.isSelected() ? margen.getValue() : 0.0;
-        rf.precioDirecto = pmDirecto.isSelected() ? parseD(precioDirecto.getText(), 0.0) : 0.0;
-        rf.manoObraUnit = manoObraUnit.getValue();
-        rf.items = new ArrayList<>();
-        for (Insumo in : insumos) {
-            double base = inventory.toBase(in.prod, in.cantidadPorProducto);
-            rf.items.add(new RecipeItem(
-                    in.prod.getSku(),
-                    "BASE", // o "" si prefieres
-                    round2(inventory.toBase(in.prod, in.cantidadPorProducto))));
-
-        }
-        return rf;
-    }
-
-    private void writeRecipeFile(RecipeFile rf) {
-        try {
-            Files.createDirectories(recetasDir());
-            Path p = pathReceta(rf.nombre);
-            String json = gson.toJson(rf);
-            Files.writeString(p, json, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (Exception e) {
-            flash(AlertBanner.warn("No se pudo guardar la receta"));
-        }
+        recetaSelect.setItems(FXCollections.observableArrayList(recipes.names()));
     }
 
     /* =================== Utilidades =================== */
@@ -960,15 +886,6 @@ public class ProductionView extends BorderPane {
         return (ComboBox<T>) cb;
     }
 
-    private String slug(String s) {
-        String n = Normalizer.normalize(s == null ? "" : s, Normalizer.Form.NFD)
-                .replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        n = n.replaceAll("[^\\p{L}0-9]+", "-").replaceAll("^-+|-+$", "").toLowerCase(java.util.Locale.ROOT);
-        if (n.isBlank())
-            n = "pf";
-        return n;
-    }
-
     // Conversión unidades
     private double toProductUnit(Product p, double cant) {
         String u = lc(p.getUnidad());
@@ -1057,64 +974,6 @@ public class ProductionView extends BorderPane {
         return cand;
     }
 
-    /* ====== Watcher de archivos para refrescar catálogos/recetas ====== */
-    private void startFileWatch() {
-        try {
-            Path dataDir = Path.of("").toAbsolutePath().resolve("data");
-            Files.createDirectories(dataDir);
-            Files.createDirectories(recetasDir());
-
-            // Usa un thread daemon para no bloquear cierre.
-            var ex = Executors.newSingleThreadScheduledExecutor(r -> {
-                Thread t = new Thread(r, "pos-filewatch");
-                t.setDaemon(true);
-                return t;
-            });
-
-            ex.scheduleWithFixedDelay(() -> {
-                try {
-                    // Si cambió products.json -> refrescar materiales
-                    Path products = dataDir.resolve("products.json");
-                    // Si cambió lista de recetas (nuevo/actualizado) -> refrescar select
-                    // Implementación simple: escanea timestamps y refresca si cambia tamaño o
-                    // mtime.
-                    long key = (Files.exists(products) ? Files.getLastModifiedTime(products).toMillis() : 0)
-                            ^ directoryStamp(recetasDir());
-                    // cache estática en campo local del runnable
-                    stampCache = (stampCache == 0L) ? key : stampCache;
-                    if (key != stampCache) {
-                        stampCache = key;
-                        Platform.runLater(() -> {
-                            cargarCatalogo();
-                            refrescarListaRecetas();
-                            renderInsumos();
-                        });
-                    }
-                } catch (Exception ignored) {
-                }
-            }, 500, 700, TimeUnit.MILLISECONDS);
-
-        } catch (Exception ignored) {
-        }
-    }
-
-    private long stampCache = 0L;
-
-    private long directoryStamp(Path dir) {
-        try (var s = Files.list(dir)) {
-            return s.filter(Files::isRegularFile)
-                    .mapToLong(p -> {
-                        try {
-                            return Files.getLastModifiedTime(p).toMillis() ^ p.toString().hashCode();
-                        } catch (Exception e) {
-                            return p.toString().hashCode();
-                        }
-                    }).reduce(0L, (a, b) -> a ^ b);
-        } catch (Exception e) {
-            return 0L;
-        }
-    }
-
     /* =================== Modelos =================== */
     private static class Insumo {
         final Product prod;
@@ -1127,13 +986,4 @@ public class ProductionView extends BorderPane {
             this.humanResumen = h;
         }
     }
-
-    private static class RecipeFile {
-        String nombre;
-        String sku;
-        double margen;
-        double precioDirecto;
-        double manoObraUnit;
-        List<RecipeItem> items = new ArrayList<>();
-    }
 }
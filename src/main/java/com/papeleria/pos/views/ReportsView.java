@@ -1,15 +1,18 @@
 package com.papeleria.pos.views;
 
-import com.papeleria.pos.models.Product;
+import com.papeleria.pos.components.AlertBanner;
 import com.papeleria.pos.models.Sale;
 import com.papeleria.pos.services.EventBus;
+import com.papeleria.pos.services.ExportService;
 import com.papeleria.pos.services.InventoryService;
+import com.papeleria.pos.services.SalesAggregates;
 import com.papeleria.pos.services.SalesService;
 import com.papeleria.pos.services.SessionService;
 import com.papeleria.pos.services.StorageService;
 
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleStringProperty;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
@@ -17,19 +20,40 @@ import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
+import javafx.stage.FileChooser;
 import javafx.util.Pair;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ReportsView extends VBox {
 
+    private static final Locale ES = Locale.forLanguageTag("es-MX");
+
+    // Hilo para cálculos de reportes fuera del hilo de JavaFX
+    private static final ExecutorService REPORTES = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "pos-reportes");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final ChoiceBox<String> topOrden = new ChoiceBox<>();
+    private long topGeneracion = 0;
+
     public ReportsView(SessionService session,
             SalesService sales,
             InventoryService inventory,
             StorageService storage,
+            SalesAggregates aggregates,
             EventBus bus) {
 
         setSpacing(12);
@@ -49,8 +73,16 @@ public class ReportsView extends VBox {
         Region sp = new Region();
         HBox.setHgrow(sp, Priority.ALWAYS);
 
-        Label export = new Label("⬇ Exportar");
+        MenuButton export = new MenuButton("⬇ Exportar");
         export.getStyleClass().addAll("button", "ghost");
+        ExportService exporter = new ExportService(storage, inventory);
+        for (ExportService.Datos datos : ExportService.Datos.values()) {
+            for (ExportService.Formato formato : ExportService.Formato.values()) {
+                MenuItem mi = new MenuItem(datos.getTitulo() + " (." + formato.name().toLowerCase(Locale.ROOT) + ")");
+                mi.setOnAction(e -> exportar(exporter, datos, formato, export));
+                export.getItems().add(mi);
+            }
+        }
 
         Button ver = new Button("Ver ticket");
         ver.getStyleClass().addAll("button", "ghost");
@@ -185,10 +217,10 @@ public class ReportsView extends VBox {
 
         // ===== KPIs =====
         HBox kpis = new HBox(12,
-                kpi("Ventas Hoy", "$" + String.format("%.2f", totalVentas(storage))),
-                kpi("Transacciones", String.valueOf(totalTransacciones(storage))),
-                kpi("Ticket Promedio", "$" + String.format("%.2f", ticketPromedio(storage))),
-                kpi("Ganancia Neta", "$" + String.format("%.2f", gananciaSimple(storage))));
+                kpi("Ventas Hoy", "$" + String.format("%.2f", aggregates.total())),
+                kpi("Transacciones", String.valueOf(aggregates.transacciones())),
+                kpi("Ticket Promedio", "$" + String.format("%.2f", aggregates.ticketPromedio())),
+                kpi("Ganancia Neta", "$" + String.format("%.2f", gananciaSimple(aggregates))));
 
         // ===== Gráficas =====
         // Ventas por período (simple)
@@ -199,42 +231,35 @@ public class ReportsView extends VBox {
         ventasChart.setCategoryGap(12);
         ventasChart.setTitle(null);
         ventasChart.setPrefHeight(240);
-        XYChart.Series<String, Number> s1 = new XYChart.Series<>();
-        double base = Math.max(1.0, totalVentas(storage));
-        for (int i = 1; i <= 7; i++) {
-            s1.getData().add(new XYChart.Data<>("D" + i, (base / 7.0) * (0.6 + (i % 3) * 0.2)));
-        }
-        ventasChart.getData().add(s1);
+        // Sin animación: las categorías cambian con el rango y la animación las desordena
+        ventasChart.setAnimated(false);
+        renderVentas(ventasChart, aggregates, rango.getValue());
+        rango.valueProperty().addListener((o, a, v) -> renderVentas(ventasChart, aggregates, v));
         StackPane ventasCard = new StackPane(ventasChart);
         ventasCard.getStyleClass().add("card");
         ventasCard.setPadding(new Insets(12));
 
-        // Top productos por stock (simple)
+        // Top productos vendidos en el rango (importe o unidades)
         CategoryAxis px = new CategoryAxis();
         NumberAxis py = new NumberAxis();
         BarChart<String, Number> top = new BarChart<>(px, py);
         top.setLegendVisible(false);
         top.setCategoryGap(8);
         top.setPrefHeight(240);
-        XYChart.Series<String, Number> s2 = new XYChart.Series<>();
-        List<Product> prods = inventory.list();
-        int count = 0;
-        for (Product p : prods) {
-            s2.getData().add(new XYChart.Data<>(
-                    p.getNombre().length() > 10 ? p.getNombre().substring(0, 10) + "…" : p.getNombre(),
-                    Math.max(0, Math.min(100, p.getStock()))));
-            if (++count == 5)
-                break;
-        }
-        if (count == 0)
-            s2.getData().add(new XYChart.Data<>("Sin datos", 0));
-        top.getData().add(s2);
+        top.setAnimated(false);
+        topOrden.getItems().addAll("Por importe", "Por unidades");
+        topOrden.getSelectionModel().selectFirst();
+        renderTop(top, aggregates, rango.getValue());
+        rango.valueProperty().addListener((o, a, v) -> renderTop(top, aggregates, v));
+        topOrden.valueProperty().addListener((o, a, v) -> renderTop(top, aggregates, rango.getValue()));
         StackPane topCard = new StackPane(top);
         topCard.getStyleClass().add("card");
         topCard.setPadding(new Insets(12));
 
         // Layout de gráficas
-        VBox leftBottom = new VBox(12, new Label("Top 5 Productos"), topCard);
+        Region topSp = new Region();
+        HBox.setHgrow(topSp, Priority.ALWAYS);
+        VBox leftBottom = new VBox(12, new HBox(8, new Label("Top 5 Productos"), topSp, topOrden), topCard);
         leftBottom.getStyleClass().add("panel");
         VBox rightBottom = new VBox(12, new Label("Ventas por Período"), ventasCard);
         rightBottom.getStyleClass().add("panel");
@@ -253,13 +278,13 @@ public class ReportsView extends VBox {
         // Suscripciones para refrescar KPIs/gráficas al cambiar ventas/inventario
         bus.subscribe(EventBus.Topic.SALES_CHANGED,
                 e -> javafx.application.Platform.runLater(() -> {
-                    refresh(inventory, storage, kpis, ventasChart, top);
+                    refresh(inventory, aggregates, kpis, ventasChart, top, rango.getValue());
                     refreshHistory(tabla, sales, ticketView); // ← también recarga la tabla y limpia vista
                 }));
 
         bus.subscribe(EventBus.Topic.INVENTORY_CHANGED,
                 e -> javafx.application.Platform.runLater(() -> {
-                    refresh(inventory, storage, kpis, ventasChart, top);
+                    refresh(inventory, aggregates, kpis, ventasChart, top, rango.getValue());
                     // opcional: no es estrictamente necesario refrescar historial en cambios de
                     // inventario
                 }));
@@ -279,66 +304,151 @@ public class ReportsView extends VBox {
         return wrap;
     }
 
-    // ====== Cálculos simples a partir de ventas guardadas ======
-    private double totalVentas(StorageService storage) {
-        double sum = 0.0;
-        for (Sale s : storage.loadSales())
-            sum += s.getTotal();
-        return sum;
-    }
-
-    private int totalTransacciones(StorageService storage) {
-        return storage.loadSales().size();
-    }
-
-    private double ticketPromedio(StorageService storage) {
-        int n = storage.loadSales().size();
-        return n == 0 ? 0.0 : totalVentas(storage) / n;
-    }
-
-    private double gananciaSimple(StorageService storage) {
+    // ====== Cálculos simples a partir de los acumulados de ventas ======
+    private double gananciaSimple(SalesAggregates aggregates) {
         // Estimación rápida 40% margen
-        return totalVentas(storage) * 0.40;
+        return aggregates.total() * 0.40;
     }
 
     // Recalcular KPIs y series
     private void refresh(InventoryService inventory,
-            StorageService storage,
+            SalesAggregates aggregates,
             HBox kpis,
             BarChart<String, Number> ventas,
-            BarChart<String, Number> top) {
+            BarChart<String, Number> top,
+            String rango) {
 
         ((Label) ((VBox) ((HBox) kpis.getChildren().get(0)).getChildren().get(0)).getChildren().get(1))
-                .setText("$" + String.format("%.2f", totalVentas(storage)));
+                .setText("$" + String.format("%.2f", aggregates.total()));
         ((Label) ((VBox) ((HBox) kpis.getChildren().get(1)).getChildren().get(0)).getChildren().get(1))
-                .setText(String.valueOf(totalTransacciones(storage)));
+                .setText(String.valueOf(aggregates.transacciones()));
         ((Label) ((VBox) ((HBox) kpis.getChildren().get(2)).getChildren().get(0)).getChildren().get(1))
-                .setText("$" + String.format("%.2f", ticketPromedio(storage)));
+                .setText("$" + String.format("%.2f", aggregates.ticketPromedio()));
         ((Label) ((VBox) ((HBox) kpis.getChildren().get(3)).getChildren().get(0)).getChildren().get(1))
-                .setText("$" + String.format("%.2f", gananciaSimple(storage)));
+                .setText("$" + String.format("%.2f", gananciaSimple(aggregates)));
 
-        ventas.getData().clear();
-        XYChart.Series<String, Number> s = new XYChart.Series<>();
-        double base = Math.max(1.0, totalVentas(storage));
-        for (int i = 1; i <= 7; i++) {
-            s.getData().add(new XYChart.Data<>("D" + i, (base / 7.0) * (0.6 + (i % 3) * 0.2)));
-        }
-        ventas.getData().add(s);
-
-        top.getData().clear();
-        XYChart.Series<String, Number> s2 = new XYChart.Series<>();
-        List<Product> prods = inventory.list();
-        int count = 0;
-        for (Product p : prods) {
-            s2.getData().add(new XYChart.Data<>(
-                    p.getNombre().length() > 10 ? p.getNombre().substring(0, 10) + "…" : p.getNombre(),
-                    Math.max(0, Math.min(100, p.getStock()))));
-            if (++count == 5)
-                break;
+        renderVentas(ventas, aggregates, rango);
+        renderTop(top, aggregates, rango);
+    }
+
+    // Ventas por período según el rango elegido (días, semanas o meses)
+    private void renderVentas(BarChart<String, Number> chart, SalesAggregates aggregates, String rango) {
+        LocalDate hoy = LocalDate.now();
+        LocalDate desde = desdeDe(rango, hoy);
+        SalesAggregates.Granularidad g;
+        DateTimeFormatter fmt;
+        switch (rango == null ? "" : rango) {
+            case "Últimos 30 días" -> {
+                g = SalesAggregates.Granularidad.SEMANA;
+                fmt = DateTimeFormatter.ofPattern("'Sem' dd/MM");
+            }
+            case "Este mes" -> {
+                g = SalesAggregates.Granularidad.DIA;
+                fmt = DateTimeFormatter.ofPattern("dd");
+            }
+            case "Año en curso" -> {
+                g = SalesAggregates.Granularidad.MES;
+                fmt = DateTimeFormatter.ofPattern("MMM", ES);
+            }
+            default -> {
+                g = SalesAggregates.Granularidad.DIA;
+                fmt = DateTimeFormatter.ofPattern("EEE dd", ES);
+            }
         }
-        if (count == 0)
-            s2.getData().add(new XYChart.Data<>("Sin datos", 0));
-        top.getData().add(s2);
+        XYChart.Series<String, Number> s = new XYChart.Series<>();
+        aggregates.serie(desde, hoy, g).forEach((d, total) -> s.getData().add(new XYChart.Data<>(d.format(fmt), total)));
+        chart.getData().setAll(List.of(s));
+    }
+
+    /** Primer día incluido en el rango elegido. */
+    private static LocalDate desdeDe(String rango, LocalDate hoy) {
+        return switch (rango == null ? "" : rango) {
+            case "Últimos 30 días" -> hoy.minusDays(29);
+            case "Este mes" -> hoy.withDayOfMonth(1);
+            case "Año en curso" -> hoy.withDayOfYear(1);
+            default -> hoy.minusDays(6);
+        };
+    }
+
+    // Top 5 del rango: se calcula en segundo plano y solo se pinta la última petición
+    private void renderTop(BarChart<String, Number> chart, SalesAggregates aggregates, String rango) {
+        LocalDate hoy = LocalDate.now();
+        LocalDate desde = desdeDe(rango, hoy);
+        boolean porUnidades = "Por unidades".equals(topOrden.getValue());
+        SalesAggregates.Orden orden = porUnidades ? SalesAggregates.Orden.UNIDADES : SalesAggregates.Orden.IMPORTE;
+        long gen = ++topGeneracion;
+        REPORTES.execute(() -> {
+            List<SalesAggregates.TopItem> items = aggregates.topProductos(desde, hoy, 5, orden);
+            javafx.application.Platform.runLater(() -> {
+                if (gen != topGeneracion)
+                    return;
+                XYChart.Series<String, Number> s2 = new XYChart.Series<>();
+                for (SalesAggregates.TopItem it : items) {
+                    String n = it.nombre();
+                    s2.getData().add(new XYChart.Data<>(
+                            n.length() > 10 ? n.substring(0, 10) + "…" : n,
+                            porUnidades ? it.unidades() : it.importe()));
+                }
+                if (items.isEmpty())
+                    s2.getData().add(new XYChart.Data<>("Sin datos", 0));
+                chart.getData().setAll(List.of(s2));
+            });
+        });
+    }
+
+    /* ======================= Exportación ======================= */
+
+    // Exporta en segundo plano: aviso con filas escritas y botón para detener
+    private void exportar(ExportService exporter, ExportService.Datos datos, ExportService.Formato formato,
+            MenuButton boton) {
+        String ext = formato.name().toLowerCase(Locale.ROOT);
+        FileChooser fc = new FileChooser();
+        fc.setInitialFileName(datos.getTitulo().toLowerCase(Locale.ROOT) + "-" + LocalDate.now() + "." + ext);
+        fc.getExtensionFilters().add(new FileChooser.ExtensionFilter(formato.name() + " ." + ext, "*." + ext));
+        File f = fc.showSaveDialog(getScene().getWindow());
+        if (f == null)
+            return;
+        Path destino = f.toPath();
+
+        Task<Integer> task = new Task<>() {
+            @Override
+            protected Integer call() throws Exception {
+                updateMessage("Exportando " + datos.getTitulo().toLowerCase(Locale.ROOT) + "…");
+                return exporter.export(datos, formato, destino,
+                        n -> updateMessage("Exportando " + datos.getTitulo().toLowerCase(Locale.ROOT) + "… "
+                                + n + " filas"),
+                        this::isCancelled);
+            }
+        };
+
+        AlertBanner aviso = AlertBanner.info("Exportando…");
+        Button detener = new Button("Detener");
+        detener.getStyleClass().addAll("button", "ghost");
+        detener.setOnAction(e -> task.cancel(false));
+        aviso.getChildren().add(detener);
+        task.messageProperty().addListener((o, a, m) -> aviso.setMessage(m));
+
+        getChildren().removeIf(n -> n instanceof AlertBanner);
+        getChildren().add(0, aviso);
+        boton.setDisable(true);
+
+        task.setOnSucceeded(e -> terminarExport(aviso, boton,
+                AlertBanner.success("Exportadas " + task.getValue() + " filas a " + f.getName())));
+        task.setOnCancelled(e -> terminarExport(aviso, boton, AlertBanner.warn("Exportación cancelada")));
+        task.setOnFailed(e -> terminarExport(aviso, boton,
+                task.getException() instanceof ExportService.ExportCancelled
+                        ? AlertBanner.warn("Exportación cancelada")
+                        : AlertBanner.danger("Error exportando: " + task.getException().getMessage())));
+
+        Thread t = new Thread(task, "pos-export");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void terminarExport(AlertBanner aviso, MenuButton boton, AlertBanner resultado) {
+        getChildren().remove(aviso);
+        getChildren().add(0, resultado);
+        boton.setDisable(false);
     }
 
     // Recarga la tabla de ventas (historial) y limpia la vista de ticket
@@ -1,6 +1,8 @@
 package com.papeleria.pos.views;
 
 import com.papeleria.pos.components.AlertBanner;
+import com.papeleria.pos.components.DebouncedSearch;
+import com.papeleria.pos.components.TileGrid;
 import com.papeleria.pos.models.Product;
 import com.papeleria.pos.models.Sale;
 import com.papeleria.pos.models.SaleItem;
@@ -31,7 +33,8 @@ public class SalesView extends BorderPane {
     private final EventBus bus;
 
     private final TextField filtro = new TextField();
-    private final FlowPane grid = new FlowPane(12, 12);
+    private final TileGrid<Product> grid = new TileGrid<>(230, 12, ProductCard::new);
+    private final DebouncedSearch<List<Product>> busqueda;
 
     private final TableView<SaleItem> cartTable = new TableView<>();
     private final ObservableList<SaleItem> cart = FXCollections.observableArrayList();
@@ -54,21 +57,13 @@ public class SalesView extends BorderPane {
         subtitle.getStyleClass().add("subtle");
 
         filtro.setPromptText("Buscar por código o nombre del producto...");
-        filtro.textProperty().addListener((o, old, v) -> renderGrid());
+        // Filtrado con espera y fuera del hilo de JavaFX
+        busqueda = new DebouncedSearch<>(filtro, this::filtrar, grid::setData);
 
-        grid.setHgap(12);
-        grid.setVgap(12);
-        grid.setPrefWrapLength(0); // <- dejamos que el ancho lo decida el ScrollPane
+        // Grilla virtualizada: solo existen las cards visibles y se reciclan al hacer scroll
+        VBox.setVgrow(grid, Priority.ALWAYS); // <- se estira verticalmente
 
-        ScrollPane sc = new ScrollPane(grid);
-        sc.setFitToWidth(true); // <- ocupa todo el ancho disponible
-        sc.setFitToHeight(true);
-        sc.setHbarPolicy(ScrollPane.ScrollBarPolicy.NEVER);
-        sc.setVbarPolicy(ScrollPane.ScrollBarPolicy.AS_NEEDED);
-        sc.setStyle("-fx-background-color: transparent;");
-        VBox.setVgrow(sc, Priority.ALWAYS); // <- se estira verticalmente
-
-        left.getChildren().addAll(new VBox(4, title, subtitle), new HBox(filtro), sc);
+        left.getChildren().addAll(new VBox(4, title, subtitle), new HBox(filtro), grid);
 
         // ---- Derecha (carrito) ----
         VBox right = new VBox(12);
@@ -226,35 +221,42 @@ public class SalesView extends BorderPane {
                 e -> javafx.application.Platform.runLater(this::renderGrid));
     }
 
+    /** Vuelve a filtrar ya; el resultado llega a la grilla y las cards visibles se actualizan en su lugar. */
     private void renderGrid() {
-        grid.getChildren().clear();
-        String q = filtro.getText() == null ? "" : filtro.getText().trim().toLowerCase();
+        busqueda.now();
+    }
+
+    /** Corre en el ejecutor de búsquedas. */
+    private List<Product> filtrar(String texto) {
+        String q = texto.trim().toLowerCase();
         List<Product> productos = inventory.list();
-        for (Product p : productos) {
-            if (!q.isEmpty()) {
-                String hay = (p.getSku() + " " + p.getNombre()).toLowerCase();
-                if (!hay.contains(q))
-                    continue;
-            }
-            VBox card = new VBox(6);
-            card.getStyleClass().add("product-card");
+        if (!q.isEmpty()) {
+            productos.removeIf(p -> !(p.getSku() + " " + p.getNombre()).toLowerCase().contains(q));
+        }
+        return productos;
+    }
 
-            Label name = new Label(p.getNombre());
+    /** Card de producto reciclable: los nodos se crean una vez y update() solo cambia textos. */
+    private final class ProductCard implements TileGrid.Tile<Product> {
+        private final VBox card = new VBox(6);
+        private final Label name = new Label();
+        private final Label code = new Label();
+        private final Label stock = new Label();
+        private final Label price = new Label();
+        private Product p;
+
+        ProductCard() {
+            card.getStyleClass().add("product-card");
             name.getStyleClass().add("name");
-            Label code = new Label("Código: " + p.getSku());
             code.getStyleClass().add("code");
-
-            // Stock visible y coloreado
-            Label stock = new Label(stockText(p));
             stock.getStyleClass().add("stock");
-            stock.getStyleClass().add(stockClass(p.getStock()));
-
-            Label price = new Label(String.format("$%.2f", p.getPrecio()));
             price.getStyleClass().add("price");
 
             Button add = new Button("+");
             add.getStyleClass().addAll("product-add", "primary");
             add.setOnAction(ev -> {
+                if (p == null)
+                    return;
                 Choice c = promptVenta(p); // devuelve qtyInProductUnit (fracción) y unitPricePerProductUnit
                 if (c == null)
                     return;
@@ -267,14 +269,29 @@ public class SalesView extends BorderPane {
                 cart.add(it);
                 recalcTotal();
             });
-            ;
 
             Region spacer = new Region();
             HBox.setHgrow(spacer, Priority.ALWAYS);
             HBox bottom = new HBox(8, price, spacer, add);
 
             card.getChildren().addAll(name, code, stock, bottom);
-            grid.getChildren().add(card);
+        }
+
+        @Override
+        public VBox getNode() {
+            return card;
+        }
+
+        @Override
+        public void update(Product prod) {
+            this.p = prod;
+            name.setText(prod.getNombre());
+            code.setText("Código: " + prod.getSku());
+            // Stock visible y coloreado
+            stock.setText(stockText(prod));
+            stock.getStyleClass().removeAll("stock-zero", "stock-low", "stock-ok");
+            stock.getStyleClass().add(stockClass(prod.getStock()));
+            price.setText(String.format("$%.2f", prod.getPrecio()));
         }
     }
 